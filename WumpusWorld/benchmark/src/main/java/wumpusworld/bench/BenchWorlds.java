@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld.bench;
+
+import java.util.Random;
+import wumpusworld.MapGenerator;
+import wumpusworld.QState;
+import wumpusworld.World;
+
+/**
+ * Reproducible worlds for the benchmarks.
+ *
+ * @author Azeroc
+ */
+public class BenchWorlds {
+    /**
+     * Get a random world after some random legal agent actions,
+     * with the game still running and the player not in a pit
+     * @param size world size
+     * @param seed map and action seed
+     * @param steps agent actions to take
+     * @return World object
+     */
+    public static World midGame(int size, int seed, int steps) {
+        Random rand = new Random(seed);
+        for (int attempt = 0; ; attempt++) {
+            World w = MapGenerator.getRandomMap(seed + attempt, size).generateWorld();
+            for (int i = 0; i < steps && !w.gameOver(); i++) {
+                int action = QState.parseFromWorldState(w).argRandomAction(rand);
+                if (action == -1 || action == QState.A_GRAB) {
+                    break;
+                }
+                QState.doQStateAction(w, action);
+            }
+            if (!w.gameOver() && !w.isInPit()) {
+                return w;
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wumpusworld.QState;
+import wumpusworld.World;
+
+/**
+ * State encoding: parsing a world into a QState and building its keys.
+ *
+ * @author Azeroc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QStateBenchmark {
+    @Param({"4", "8", "16"})
+    public int size;
+
+    private World world;
+    private QState state;
+
+    @Setup
+    public void setup() {
+        world = BenchWorlds.midGame(size, 1, 8);
+        state = QState.parseFromWorldState(world);
+    }
+
+    @Benchmark
+    public QState parseFromWorldState() {
+        return QState.parseFromWorldState(world);
+    }
+
+    @Benchmark
+    public String getKey() {
+        return state.getKey();
+    }
+
+    @Benchmark
+    public void packKey(Blackhole bh) {
+        bh.consume(QState.packKeyHeader(world));
+        bh.consume(QState.packKeyTiles(world));
+    }
+}
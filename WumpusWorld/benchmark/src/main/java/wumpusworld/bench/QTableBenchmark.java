@@ -0,0 +1,58 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wumpusworld.QState;
+import wumpusworld.QTable;
+import wumpusworld.World;
+
+/**
+ * Q-table lookups of a state that is already in the table.
+ *
+ * @author Azeroc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QTableBenchmark {
+    @Param({"heap", "offheap"})
+    public String storage;
+
+    private World world;
+    private QTable table;
+
+    @Setup
+    public void setup() {
+        world = BenchWorlds.midGame(4, 1, 8);
+        table = new QTable(storage.equals("offheap") ? QTable.STORAGE_OFF_HEAP : QTable.STORAGE_HEAP);
+        table.getSlotFromWorld(world);
+    }
+
+    @Benchmark
+    public QState getQStateFromWorld() {
+        return table.getQStateFromWorld(world);
+    }
+
+    @Benchmark
+    public int getSlotFromWorld() {
+        return table.getSlotFromWorld(world);
+    }
+}
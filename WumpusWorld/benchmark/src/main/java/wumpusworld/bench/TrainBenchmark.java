@@ -0,0 +1,55 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wumpusworld.FastRandom;
+import wumpusworld.MapGenerator;
+import wumpusworld.MyAgent;
+import wumpusworld.QTable;
+import wumpusworld.WorldMap;
+
+/**
+ * Full training episodes on one map. The table keeps learning across
+ * invocations, so this measures episodes on a warm table.
+ *
+ * @author Azeroc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainBenchmark {
+    @Param({"4", "8"})
+    public int size;
+
+    private WorldMap map;
+    private MyAgent agent;
+
+    @Setup
+    public void setup() {
+        map = MapGenerator.getRandomMap(1, size);
+        agent = new MyAgent(null, new QTable(QTable.STORAGE_HEAP), new FastRandom(1));
+    }
+
+    @Benchmark
+    public void trainEpisode() {
+        agent.trainEpisode(0.1, 0.9, 0.5, map);
+    }
+}
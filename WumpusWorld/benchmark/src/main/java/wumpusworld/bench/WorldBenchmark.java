@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import wumpusworld.World;
+
+/**
+ * World engine: actions, copying and knowledge queries.
+ * Turning is used for doAction since it never ends the game,
+ * moveExplore steps into an unknown square and undoes it again.
+ *
+ * @author Azeroc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldBenchmark {
+    @Param({"4", "8", "16"})
+    public int size;
+
+    private World world;
+    private World explorer;
+    private int exploreDir;
+    private int exploreMark;
+
+    @Setup
+    public void setup() {
+        world = BenchWorlds.midGame(size, 1, 8);
+        explorer = world.cloneWorld();
+        explorer.setJournaling(true);
+        exploreMark = explorer.getJournalSize();
+        exploreDir = exploreDirection(explorer);
+    }
+
+    /**
+     * Get a direction leading to an unknown square, or to any
+     * valid square if all neighbours are explored
+     * @param w World object
+     * @return Direction constant
+     */
+    private static int exploreDirection(World w) {
+        int[] dx = {0, 1, 0, -1};
+        int[] dy = {1, 0, -1, 0};
+        int valid = -1;
+        for (int d = World.DIR_UP; d <= World.DIR_LEFT; d++) {
+            int x = w.getPlayerX() + dx[d];
+            int y = w.getPlayerY() + dy[d];
+            if (!w.isValidPosition(x, y)) {
+                continue;
+            }
+            if (w.isUnknown(x, y)) {
+                return d;
+            }
+            if (valid == -1) {
+                valid = d;
+            }
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public boolean doAction() {
+        return world.doAction(World.ACT_TURN_RIGHT);
+    }
+
+    @Benchmark
+    public boolean doActionString() {
+        return world.doAction(World.A_TURN_RIGHT);
+    }
+
+    @Benchmark
+    public boolean moveExplore() {
+        boolean moved = explorer.moveDirection(exploreDir);
+        explorer.undoTo(exploreMark);
+        return moved;
+    }
+
+    @Benchmark
+    public World cloneWorld() {
+        return world.cloneWorld();
+    }
+
+    @Benchmark
+    public boolean isSafeExplored() {
+        return world.isSafeExplored();
+    }
+}
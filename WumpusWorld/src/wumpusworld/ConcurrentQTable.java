@@ -0,0 +1,241 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Random;
+
+/**
+ * Thread-safe QTable for training on several threads at once.
+ * States are spread over SEGMENTS independent QTables (lock striping),
+ * each guarded by its own lock, so workers only contend when they touch
+ * states in the same segment.
+ *
+ * A slot of this table is (segment slot << SEGMENT_BITS) | segment index.
+ *
+ * @author Azeroc
+ */
+public class ConcurrentQTable extends QTable {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENTS - 1;
+
+    private final QTable[] _segments;
+
+    public ConcurrentQTable() {
+        this(STORAGE_HEAP);
+    }
+
+    /**
+     * Create concurrent QTable with the selected storage for its segments
+     * Segments of a mapped table are kept off-heap, copy back to write them to the file.
+     * @param storage STORAGE_HEAP, STORAGE_OFF_HEAP or STORAGE_MAPPED
+     */
+    public ConcurrentQTable(int storage) {
+        super((storage == STORAGE_MAPPED) ? STORAGE_OFF_HEAP : storage, false); // All states live in the segments
+        _segments = new QTable[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            _segments[i] = new QTable(this.getStorage());
+        }
+    }
+
+    // Public methods
+    @Override
+    public void storeQValues(long header, long tiles, double[] values) {
+        QTable segment = _segments[segmentOf(header, tiles)];
+        synchronized (segment) {
+            segment.storeQValues(header, tiles, values);
+        }
+    }
+
+    @Override
+    public QState getQState(long header, long tiles) {
+        QTable segment = _segments[segmentOf(header, tiles)];
+        synchronized (segment) {
+            return segment.getQState(header, tiles);
+        }
+    }
+
+    @Override
+    public int getSlotFromWorld(World w) {
+        long header = QState.packKeyHeader(w);
+        long tiles = QState.packKeyTiles(w);
+        int index = segmentOf(header, tiles);
+        QTable segment = _segments[index];
+
+        int slot;
+        synchronized (segment) {
+            slot = segment.getSlot(header, tiles);
+        }
+
+        if (slot == -1) {
+            // Check legality outside of the lock, then check again in case another worker added the state meanwhile
+            int legal = QState.getLegalActionMask(w);
+            synchronized (segment) {
+                slot = segment.getSlot(header, tiles);
+                if (slot == -1) {
+                    slot = segment.insertState(header, tiles, legal);
+                }
+            }
+        }
+        return (slot << SEGMENT_BITS) | index;
+    }
+
+    @Override
+    public int getSlot(long header, long tiles) {
+        int index = segmentOf(header, tiles);
+        QTable segment = _segments[index];
+        int slot;
+        synchronized (segment) {
+            slot = segment.getSlot(header, tiles);
+        }
+        return (slot == -1) ? -1 : (slot << SEGMENT_BITS) | index;
+    }
+
+    @Override
+    public long getKeyHeader(int slot) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.getKeyHeader(slot >>> SEGMENT_BITS);
+        }
+    }
+
+    @Override
+    public long getKeyTiles(int slot) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.getKeyTiles(slot >>> SEGMENT_BITS);
+        }
+    }
+
+    @Override
+    public double getQValue(int slot, int action) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.getQValue(slot >>> SEGMENT_BITS, action);
+        }
+    }
+
+    @Override
+    public void setQValue(int slot, int action, double value) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            segment.setQValue(slot >>> SEGMENT_BITS, action, value);
+        }
+    }
+
+    @Override
+    public double updateQValue(int slot, int action, double alpha, double target) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.updateQValue(slot >>> SEGMENT_BITS, action, alpha, target);
+        }
+    }
+
+    @Override
+    public double argmaxValue(int slot) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.argmaxValue(slot >>> SEGMENT_BITS);
+        }
+    }
+
+    @Override
+    public int argmaxAction(int slot) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.argmaxAction(slot >>> SEGMENT_BITS);
+        }
+    }
+
+    @Override
+    public int argRandomAction(int slot, Random rand) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.argRandomAction(slot >>> SEGMENT_BITS, rand);
+        }
+    }
+
+    @Override
+    public int selectAction(int slot, double eps, Random rand) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.selectAction(slot >>> SEGMENT_BITS, eps, rand);
+        }
+    }
+
+    @Override
+    public int getLegalActionMask(int slot) {
+        QTable segment = _segments[slot & SEGMENT_MASK];
+        synchronized (segment) {
+            return segment.getLegalActionMask(slot >>> SEGMENT_BITS);
+        }
+    }
+
+    @Override
+    public int getQStateCount() {
+        int count = 0;
+        for (QTable segment : _segments) {
+            synchronized (segment) {
+                count += segment.getQStateCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void copyTo(QTable target) {
+        for (QTable segment : _segments) {
+            synchronized (segment) {
+                segment.copyTo(target);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (QTable segment : _segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        // Segments grow on their own
+    }
+
+    @Override
+    protected int insertState(long header, long tiles, double[] values) {
+        int index = segmentOf(header, tiles);
+        QTable segment = _segments[index];
+        synchronized (segment) {
+            return (segment.insertState(header, tiles, values) << SEGMENT_BITS) | index;
+        }
+    }
+
+    @Override
+    protected int insertState(long header, long tiles, int legal) {
+        int index = segmentOf(header, tiles);
+        QTable segment = _segments[index];
+        synchronized (segment) {
+            return (segment.insertState(header, tiles, legal) << SEGMENT_BITS) | index;
+        }
+    }
+
+    @Override
+    public void saveToFile(String path) {
+        QTable snapshot = new QTable();
+        this.copyTo(snapshot);
+        snapshot.saveToFile(path);
+    }
+
+    // Private methods
+    private static int segmentOf(long header, long tiles) {
+        // Segments use the high hash bits, the segment index itself uses the low bits
+        return QTable.hash(header, tiles) >>> (32 - SEGMENT_BITS);
+    }
+}
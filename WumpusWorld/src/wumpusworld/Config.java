@@ -1,6 +1,7 @@
 package wumpusworld;
 
 import java.io.*;
+import java.util.HashMap;
 
 /**
  * Reads the config.txt settings file.
@@ -9,13 +10,32 @@ import java.io.*;
  */
 public class Config 
 {
+    // Settings given on the command line, these take precedence over config.txt
+    private static final HashMap<String, String> overrides = new HashMap<String, String>();
+    
     /**
-     * Checks the options for the application ('gui', 'sim' or 'simdb').
+     * Overrides a config.txt setting, e.g. from the command line.
+     * 
+     * @param key Setting name (text before '=' in config.txt)
+     * @param value Setting value
+     */
+    public static void setOverride(String key, String value)
+    {
+        overrides.put(key, value);
+    }
+    
+    /**
+     * Checks the options for the application ('gui', 'sim', 'simdb', 'train', 'eval' or 'solve').
      * 
      * @return Option. Default is 'gui'. 
      */
     public static String getOption()
     {
+        if (overrides.containsKey("Option"))
+        {
+            return parseOption(overrides.get("Option"));
+        }
+        
         String option = "gui";
         try
         {
@@ -26,11 +46,7 @@ public class Config
                 if (line.startsWith("Option="))
                 {
                     String[] tokens = line.split("=");
-                    if (tokens[1].equalsIgnoreCase("gui")) option = "gui";
-                    if (tokens[1].equalsIgnoreCase("sim")) option = "sim";
-                    if (tokens[1].equalsIgnoreCase("simulator")) option = "sim";
-                    if (tokens[1].equalsIgnoreCase("simdb")) option = "simdb";
-                    if (tokens[1].equalsIgnoreCase("simulatordb")) option = "simdb";
+                    option = parseOption(tokens[1]);
                 }
                 line = r.readLine();
             }
@@ -44,23 +60,49 @@ public class Config
     }
     
     /**
-     * Returns the path to the map file.
+     * Parses an option name.
      * 
-     * @return Path to map file, or empty string if not found.
+     * @param name Option name
+     * @return Option. Default is 'gui'.
      */
-    public static String getMapfile()
+    private static String parseOption(String name)
+    {
+        String option = "gui";
+        if (name.equalsIgnoreCase("gui")) option = "gui";
+        if (name.equalsIgnoreCase("sim")) option = "sim";
+        if (name.equalsIgnoreCase("simulator")) option = "sim";
+        if (name.equalsIgnoreCase("simdb")) option = "simdb";
+        if (name.equalsIgnoreCase("simulatordb")) option = "simdb";
+        if (name.equalsIgnoreCase("train")) option = "train";
+        if (name.equalsIgnoreCase("eval")) option = "eval";
+        if (name.equalsIgnoreCase("solve")) option = "solve";
+        return option;
+    }
+    
+    /**
+     * Returns the value of a setting.
+     * 
+     * @param key Setting name (text before '=' in config.txt)
+     * @param defaultValue Value if the setting is not found
+     * @return Setting value
+     */
+    public static String getValue(String key, String defaultValue)
     {
-        String mapfile = "";
+        if (overrides.containsKey(key))
+        {
+            return overrides.get(key);
+        }
+        
+        String value = defaultValue;
         try
         {
             BufferedReader r = new BufferedReader(new FileReader("config.txt"));
             String line = r.readLine();
             while (line != null)
             {
-                if (line.startsWith("Mapfile="))
+                if (line.startsWith(key + "="))
                 {
-                    String[] tokens = line.split("=");
-                    mapfile = tokens[1];
+                    value = line.substring(key.length() + 1).trim();
                 }
                 line = r.readLine();
             }
@@ -68,8 +110,90 @@ public class Config
         }
         catch (Exception ex)
         {
-            mapfile = "";
+            value = defaultValue;
+        }
+        return value;
+    }
+    
+    /**
+     * Returns the integer value of a setting.
+     * 
+     * @param key Setting name
+     * @param defaultValue Value if the setting is not found or not a number
+     * @return Setting value
+     */
+    public static int getInt(String key, int defaultValue)
+    {
+        try
+        {
+            return Integer.parseInt(getValue(key, Integer.toString(defaultValue)));
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
+        }
+    }
+    
+    /**
+     * Returns the decimal value of a setting.
+     * 
+     * @param key Setting name
+     * @param defaultValue Value if the setting is not found or not a number
+     * @return Setting value
+     */
+    public static double getDouble(String key, double defaultValue)
+    {
+        try
+        {
+            return Double.parseDouble(getValue(key, Double.toString(defaultValue)));
+        }
+        catch (NumberFormatException ex)
+        {
+            return defaultValue;
         }
-        return mapfile;
+    }
+    
+    /**
+     * Returns the path to the map file.
+     * 
+     * @return Path to map file, or empty string if not found.
+     */
+    public static String getMapfile()
+    {
+        return getValue("Mapfile", "");
+    }
+    
+    /**
+     * Returns the size of randomly generated maps.
+     * 
+     * @return Map size. Default is 4.
+     */
+    public static int getMapSize()
+    {
+        return getInt("MapSize", 4);
+    }
+    
+    /**
+     * Returns the path to the Q-table snapshot file.
+     * 
+     * @return Path to Q-table file. Default is 'wumpus.qtb'.
+     */
+    public static String getQTableFile()
+    {
+        return getValue("QTableFile", "wumpus.qtb");
+    }
+    
+    /**
+     * Returns the storage mode for the Q-table ('heap', 'offheap' or 'mapped').
+     * Mapped storage maps QTableFile directly, read-only if QTableReadOnly=true.
+     * 
+     * @return QTable storage mode. Default is QTable.STORAGE_HEAP.
+     */
+    public static int getQTableStorage()
+    {
+        String storage = getValue("QTableStorage", "heap");
+        if (storage.equalsIgnoreCase("offheap")) return QTable.STORAGE_OFF_HEAP;
+        if (storage.equalsIgnoreCase("mapped")) return QTable.STORAGE_MAPPED;
+        return QTable.STORAGE_HEAP;
     }
 }
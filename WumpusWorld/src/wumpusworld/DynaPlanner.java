@@ -0,0 +1,284 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Arrays;
+
+/**
+ * Dyna-style planning with prioritized sweeping on a learned model.
+ *
+ * The model keeps the last reward and next state of every QTable slot and
+ * action seen in training, and a doubly linked list of the entries leading
+ * into each state. observe() queues the stepped entry and the predecessors
+ * of its state by Bellman error; plan() updates the largest errors first
+ * (an indexed max-heap) and queues the predecessors of each updated state.
+ *
+ * Steps into or out of states on the gold, on the Wumpus or in a pit, whose
+ * keys are shared between positions and maps, are not modelled, and
+ * entries seen with two different outcomes are dropped from planning.
+ *
+ * @author Azeroc
+ */
+public class DynaPlanner {
+    private static final int A = QState.Q_ARR_SIZE;
+    private static final int INITIAL_STATES = 1024;
+    private static final int NON_DETERMINISTIC = -1; // _next value of entries seen with different outcomes
+    private static final long UNMODELLED = QState.ON_GOLD_STATE | QState.ON_WUMPUS_STATE | QState.IN_PIT; // Key header flags of states left out of the model
+
+    private final QTable qt;
+    private final double threshold;
+
+    // Model, per entry
+    private int[] _next;        // Next state slot + 1, 0 if the entry was never observed, or NON_DETERMINISTIC
+    private double[] _reward;
+    private int[] _predLink;    // Next entry in the predecessor list of the same next state, -1 ends the list
+    private int[] _predPrev;    // Previous entry in that list, -1 for the first one
+    private int[] _heapPos;     // Position in the heap + 1, 0 if not queued
+    // Model, per state slot
+    private int[] _predHead;    // First entry leading into the state, -1 if none
+    private int _observed;
+
+    // Priority queue
+    private int[] _heap = new int[256];
+    private double[] _priority = new double[256];
+    private int _heapSize;
+
+    /**
+     * @param qt QTable the agent trains (the model is indexed by its slots)
+     * @param threshold smallest Bellman error worth queuing
+     */
+    public DynaPlanner(QTable qt, double threshold) {
+        this.qt = qt;
+        this.threshold = threshold;
+        this.clear();
+    }
+
+    /**
+     * Record a real step in the model and queue the entries it affects
+     * Call after the agent's own update of the step.
+     * @param slot state slot
+     * @param action QState action index taken
+     * @param reward reward of the action
+     * @param nextSlot state slot after the action
+     * @param gamma discount factor
+     */
+    public void observe(int slot, int action, double reward, int nextSlot, double gamma) {
+        ensureStates(Math.max(slot, nextSlot) + 1);
+        if (((qt.getKeyHeader(slot) | qt.getKeyHeader(nextSlot)) & UNMODELLED) != 0) {
+            queuePredecessors(slot, gamma); // The agent's update may still have changed the state's values
+            return;
+        }
+        int e = slot * A + action;
+
+        if (_next[e] == 0) {
+            _observed++;
+            _next[e] = nextSlot + 1;
+            _reward[e] = reward;
+            _predLink[e] = _predHead[nextSlot];
+            _predPrev[e] = -1;
+            if (_predHead[nextSlot] != -1) {
+                _predPrev[_predHead[nextSlot]] = e;
+            }
+            _predHead[nextSlot] = e;
+        } else if (_next[e] != NON_DETERMINISTIC && (_next[e] - 1 != nextSlot || _reward[e] != reward)) {
+            unlink(e, _next[e] - 1);
+            _next[e] = NON_DETERMINISTIC;
+        }
+
+        if (_next[e] != NON_DETERMINISTIC) {
+            queue(e, error(e, gamma));
+        }
+        queuePredecessors(slot, gamma);
+    }
+
+    /**
+     * Run planning updates, highest Bellman error first
+     * @param steps most updates to apply
+     * @param alpha learning rate
+     * @param gamma discount factor
+     * @return number of updates applied (fewer than steps if the queue ran empty)
+     */
+    public int plan(int steps, double alpha, double gamma) {
+        int done = 0;
+        while (done < steps && _heapSize > 0) {
+            int e = pop();
+            if (_next[e] == NON_DETERMINISTIC) {
+                continue; // Became non-deterministic while queued
+            }
+            int slot = e / A;
+            qt.updateQValue(slot, e % A, alpha, _reward[e] + gamma * qt.argmaxValue(_next[e] - 1));
+            queuePredecessors(slot, gamma);
+            done++;
+        }
+        return done;
+    }
+
+    /**
+     * Forget the model and empty the queue
+     */
+    public void clear() {
+        _next = new int[INITIAL_STATES * A];
+        _reward = new double[INITIAL_STATES * A];
+        _predLink = new int[INITIAL_STATES * A];
+        _predPrev = new int[INITIAL_STATES * A];
+        _heapPos = new int[INITIAL_STATES * A];
+        _predHead = new int[INITIAL_STATES];
+        Arrays.fill(_predHead, -1);
+        _observed = 0;
+        _heapSize = 0;
+    }
+
+    /**
+     * Get number of state-action pairs in the model
+     * @return observed entry count
+     */
+    public int getModelSize() {
+        return _observed;
+    }
+
+    /**
+     * Get number of entries waiting for a planning update
+     * @return queued entry count
+     */
+    public int getQueueSize() {
+        return _heapSize;
+    }
+
+    // Private methods
+    /**
+     * Bellman error of an observed entry
+     */
+    private double error(int e, double gamma) {
+        double target = _reward[e] + gamma * qt.argmaxValue(_next[e] - 1);
+        return Math.abs(target - qt.getQValue(e / A, e % A));
+    }
+
+    /**
+     * Queue the entries leading into a state whose Q-values changed
+     */
+    private void queuePredecessors(int slot, double gamma) {
+        double maxNext = qt.argmaxValue(slot);
+        for (int e = _predHead[slot]; e != -1; e = _predLink[e]) {
+            double target = _reward[e] + gamma * maxNext;
+            queue(e, Math.abs(target - qt.getQValue(e / A, e % A)));
+        }
+    }
+
+    private void unlink(int e, int oldNext) {
+        int prev = _predPrev[e];
+        int next = _predLink[e];
+        if (prev == -1) {
+            _predHead[oldNext] = next;
+        } else {
+            _predLink[prev] = next;
+        }
+        if (next != -1) {
+            _predPrev[next] = prev;
+        }
+    }
+
+    private void ensureStates(int states) {
+        int size = _predHead.length;
+        if (states <= size) {
+            return;
+        }
+        while (states > size) size *= 2;
+        _next = Arrays.copyOf(_next, size * A);
+        _reward = Arrays.copyOf(_reward, size * A);
+        _predLink = Arrays.copyOf(_predLink, size * A);
+        _predPrev = Arrays.copyOf(_predPrev, size * A);
+        _heapPos = Arrays.copyOf(_heapPos, size * A);
+        int old = _predHead.length;
+        _predHead = Arrays.copyOf(_predHead, size);
+        Arrays.fill(_predHead, old, size, -1);
+    }
+
+    /**
+     * Queue entry, or raise its priority if it is queued with a lower one
+     */
+    private void queue(int e, double priority) {
+        if (priority <= threshold) {
+            return;
+        }
+        int pos = _heapPos[e] - 1;
+        if (pos >= 0) {
+            if (priority > _priority[pos]) {
+                _priority[pos] = priority;
+                siftUp(pos);
+            }
+            return;
+        }
+
+        if (_heapSize == _heap.length) {
+            _heap = Arrays.copyOf(_heap, _heapSize * 2);
+            _priority = Arrays.copyOf(_priority, _heapSize * 2);
+        }
+        _heap[_heapSize] = e;
+        _priority[_heapSize] = priority;
+        _heapPos[e] = _heapSize + 1;
+        _heapSize++;
+        siftUp(_heapSize - 1);
+    }
+
+    private int pop() {
+        int top = _heap[0];
+        _heapPos[top] = 0;
+        _heapSize--;
+        if (_heapSize > 0) {
+            _heap[0] = _heap[_heapSize];
+            _priority[0] = _priority[_heapSize];
+            _heapPos[_heap[0]] = 1;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int pos) {
+        int e = _heap[pos];
+        double priority = _priority[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (_priority[parent] >= priority) {
+                break;
+            }
+            move(parent, pos);
+            pos = parent;
+        }
+        place(e, priority, pos);
+    }
+
+    private void siftDown(int pos) {
+        int e = _heap[pos];
+        double priority = _priority[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= _heapSize) {
+                break;
+            }
+            if (child + 1 < _heapSize && _priority[child + 1] > _priority[child]) {
+                child++;
+            }
+            if (_priority[child] <= priority) {
+                break;
+            }
+            move(child, pos);
+            pos = child;
+        }
+        place(e, priority, pos);
+    }
+
+    private void move(int from, int to) {
+        _heap[to] = _heap[from];
+        _priority[to] = _priority[from];
+        _heapPos[_heap[to]] = to + 1;
+    }
+
+    private void place(int e, double priority, int pos) {
+        _heap[pos] = e;
+        _priority[pos] = priority;
+        _heapPos[e] = pos + 1;
+    }
+}
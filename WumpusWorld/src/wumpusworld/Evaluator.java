@@ -0,0 +1,324 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays the greedy policy of a QTable on many maps in parallel and
+ * collects score and outcome statistics.
+ *
+ * The table is only read: states missing from it are played with the
+ * default values of their parsed QState instead of being inserted, so
+ * the same table (e.g. a read-only mapped snapshot) can be shared by all
+ * workers without locking. Games are split into chunks of GAMES_PER_TASK
+ * which run on a thread pool, each game writing its own result slot.
+ * Every game runs through a SimulationRunner, so games that exceed the
+ * action budget or time limit count as timeouts and games where the
+ * policy goes around in circles count as cycles.
+ *
+ * @author Azeroc
+ */
+public class Evaluator {
+    public static final int GAMES_PER_TASK = 256;
+    public static final int DEFAULT_MAX_ACTIONS = 1000;
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    
+    // Game outcomes
+    public static final byte OUTCOME_WIN = 0;     // Grabbed the gold
+    public static final byte OUTCOME_DEATH = 1;   // Game over without the gold
+    public static final byte OUTCOME_TIMEOUT = 2; // Action budget or time limit used up
+    public static final byte OUTCOME_CYCLE = 3;   // Policy went around in circles
+    
+    private final QTable qt;
+    private int threads = 1;
+    private int maxActions = DEFAULT_MAX_ACTIONS;
+    private int maxRepeats = SimulationRunner.DEFAULT_MAX_REPEATS;
+    private long timeoutMs = DEFAULT_TIMEOUT_MS;
+    
+    /**
+     * @param qt QTable with the policy to evaluate (not modified)
+     */
+    public Evaluator(QTable qt) {
+        this.qt = qt;
+    }
+    
+    /**
+     * Set number of worker threads (1 plays on the calling thread)
+     * @param threads thread count
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * Set number of actions after which a game counts as timed out
+     * @param maxActions action budget per game
+     */
+    public void setMaxActions(int maxActions) {
+        this.maxActions = Math.max(1, maxActions);
+    }
+    
+    /**
+     * Set how often a state may be reached again before a game counts as a cycle
+     * @param maxRepeats repeats per state, 0 disables cycle detection
+     */
+    public void setMaxRepeats(int maxRepeats) {
+        this.maxRepeats = maxRepeats;
+    }
+    
+    /**
+     * Set wall-clock time after which a game counts as timed out
+     * @param timeoutMs timeout per game in milliseconds, 0 disables the timeout
+     */
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutMs = timeoutMs;
+    }
+    
+    /**
+     * Play every map once
+     * @param maps maps to play
+     * @return statistics of the games
+     */
+    public Result evaluate(List<WorldMap> maps) {
+        return evaluate(MapCorpus.of(maps));
+    }
+    
+    /**
+     * Play every map of a corpus once, the maps are created by the workers
+     * @param corpus maps to play
+     * @return statistics of the games
+     */
+    public Result evaluate(MapCorpus corpus) {
+        return run(corpus);
+    }
+    
+    /**
+     * Play random maps with seeds firstSeed .. firstSeed+games-1, generated by the workers
+     * @param firstSeed seed of the first map
+     * @param games number of maps
+     * @param size world size
+     * @return statistics of the games
+     */
+    public Result evaluateRandom(int firstSeed, int games, int size) {
+        return run(MapCorpus.fromGenerator(firstSeed, games, size));
+    }
+    
+    /**
+     * Create runner with the guards of this evaluator
+     * @return SimulationRunner object
+     */
+    public SimulationRunner createRunner() {
+        SimulationRunner runner = new SimulationRunner();
+        runner.setMaxActions(maxActions);
+        runner.setMaxRepeats(maxRepeats);
+        runner.setTimeoutMs(timeoutMs);
+        return runner;
+    }
+    
+    /**
+     * Play one game with the greedy policy
+     * @param w World to play in
+     * @param runner runner of the calling thread (see createRunner)
+     * @return SimulationRunner end reason
+     */
+    public int play(final World w, SimulationRunner runner) {
+        return runner.run(w, new Agent() {
+            @Override
+            public void doAction() {
+                int slot = qt.findSlotFromWorld(w);
+                int action = (slot != -1) ? qt.argmaxAction(slot) : QState.parseFromWorldState(w).argmaxAction();
+                QState.doQStateAction(w, action);
+            }
+        });
+    }
+    
+    // Private methods
+    private Result run(MapCorpus source) {
+        int games = source.size();
+        Result result = new Result(games);
+        List<EvalTask> tasks = new ArrayList<>();
+        for (int first = 0; first < games; first += GAMES_PER_TASK) {
+            tasks.add(new EvalTask(source, result, first, Math.min(first + GAMES_PER_TASK, games)));
+        }
+        
+        long start = System.nanoTime();
+        if (threads == 1) {
+            for (EvalTask task : tasks) {
+                task.run();
+            }
+        } else {
+            runParallel(tasks);
+        }
+        result.finish((System.nanoTime() - start) / 1e9);
+        return result;
+    }
+    
+    private void runParallel(List<EvalTask> tasks) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (EvalTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Evaluation task failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Games [first, last)
+     */
+    private class EvalTask implements Runnable {
+        private final MapCorpus source;
+        private final Result result;
+        private final int first;
+        private final int last;
+        
+        EvalTask(MapCorpus source, Result result, int first, int last) {
+            this.source = source;
+            this.result = result;
+            this.first = first;
+            this.last = last;
+        }
+        
+        @Override
+        public void run() {
+            SimulationRunner runner = createRunner();
+            for (int game = first; game < last; game++) {
+                World w = source.getMap(game).generateWorld();
+                int end = play(w, runner);
+                
+                result.scores[game] = w.getScore();
+                result.actions[game] = runner.getActions();
+                if (w.hasGold()) {
+                    result.outcomes[game] = OUTCOME_WIN;
+                } else if (end == SimulationRunner.END_GAME_OVER) {
+                    result.outcomes[game] = OUTCOME_DEATH;
+                } else if (end == SimulationRunner.END_CYCLE) {
+                    result.outcomes[game] = OUTCOME_CYCLE;
+                } else {
+                    result.outcomes[game] = OUTCOME_TIMEOUT;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Scores and outcomes of an evaluation, indexed by game
+     */
+    public static class Result {
+        public final int[] scores;
+        public final int[] actions;
+        public final byte[] outcomes;
+        private int[] sortedScores;
+        private double seconds;
+        
+        Result(int games) {
+            scores = new int[games];
+            actions = new int[games];
+            outcomes = new byte[games];
+        }
+        
+        public int getGames() {
+            return scores.length;
+        }
+        
+        public double getSeconds() {
+            return seconds;
+        }
+        
+        public double getGamesPerSecond() {
+            return (seconds > 0) ? scores.length / seconds : 0;
+        }
+        
+        public double getMeanScore() {
+            long total = 0;
+            for (int score : scores) {
+                total += score;
+            }
+            return (scores.length > 0) ? (double)total / scores.length : 0;
+        }
+        
+        /**
+         * Get score percentile (nearest rank)
+         * @param p percentile, 0 .. 100
+         * @return score
+         */
+        public int getScorePercentile(double p) {
+            if (sortedScores.length == 0) {
+                return 0;
+            }
+            int rank = (int)Math.ceil(p / 100.0 * sortedScores.length);
+            return sortedScores[Math.min(Math.max(rank - 1, 0), sortedScores.length - 1)];
+        }
+        
+        public int getMedianScore() {
+            return getScorePercentile(50);
+        }
+        
+        /**
+         * Get share of games with an outcome
+         * @param outcome OUTCOME_WIN, OUTCOME_DEATH, OUTCOME_TIMEOUT or OUTCOME_CYCLE
+         * @return rate, 0.0 .. 1.0
+         */
+        public double getRate(byte outcome) {
+            int count = 0;
+            for (byte o : outcomes) {
+                if (o == outcome) {
+                    count++;
+                }
+            }
+            return (outcomes.length > 0) ? (double)count / outcomes.length : 0;
+        }
+        
+        public double getMeanActions() {
+            long total = 0;
+            for (int a : actions) {
+                total += a;
+            }
+            return (actions.length > 0) ? (double)total / actions.length : 0;
+        }
+        
+        /**
+         * Print summary of the evaluation
+         */
+        public void print() {
+            System.out.println("=== EVALUATION RESULTS ===");
+            System.out.printf("games         = %d\n", getGames());
+            System.out.printf("mean score    = %.2f\n", getMeanScore());
+            System.out.printf("median score  = %d\n", getMedianScore());
+            System.out.printf("percentiles   = p5 %d, p25 %d, p75 %d, p95 %d\n",
+                    getScorePercentile(5), getScorePercentile(25), getScorePercentile(75), getScorePercentile(95));
+            System.out.printf("min/max score = %d / %d\n", getScorePercentile(0), getScorePercentile(100));
+            System.out.printf("win rate      = %.2f %%\n", 100 * getRate(OUTCOME_WIN));
+            System.out.printf("death rate    = %.2f %%\n", 100 * getRate(OUTCOME_DEATH));
+            System.out.printf("timeout rate  = %.2f %%\n", 100 * getRate(OUTCOME_TIMEOUT));
+            System.out.printf("cycle rate    = %.2f %%\n", 100 * getRate(OUTCOME_CYCLE));
+            System.out.printf("mean actions  = %.1f\n", getMeanActions());
+            System.out.printf("games/sec     = %.0f (%.2f s)\n", getGamesPerSecond(), seconds);
+        }
+        
+        void finish(double seconds) {
+            this.seconds = seconds;
+            sortedScores = scores.clone();
+            Arrays.sort(sortedScores);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Random;
+
+/**
+ * Random generator for the training hot path, xoroshiro128+ behind the
+ * java.util.Random interface so it can be passed anywhere a Random is.
+ * Its state is two plain longs, updated without the compare-and-set of
+ * java.util.Random, and the sequence of a seed differs from Random's.
+ *
+ * @author Azeroc
+ */
+public class FastRandom extends Random {
+    private static final long serialVersionUID = 1L;
+
+    private long s0;
+    private long s1;
+
+    /**
+     * Create generator with a seed that differs on every call
+     */
+    public FastRandom() {
+        this(System.nanoTime() ^ Thread.currentThread().getId() * 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Create generator with a fixed seed
+     * @param seed seed
+     */
+    public FastRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Reset state from a seed, expanded to 128 bits with splitmix64
+     * (also called by the Random constructor)
+     * @param seed seed
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+        long z = seed;
+        s0 = splitMix(z += 0x9E3779B97F4A7C15L);
+        s1 = splitMix(z + 0x9E3779B97F4A7C15L);
+        if ((s0 | s1) == 0) {
+            s0 = 1; // The all-zero state would only ever produce zeros
+        }
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = a + b;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+        s1 = Long.rotateLeft(b, 37);
+        return result;
+    }
+
+    @Override
+    protected int next(int bits) {
+        // The high bits of xoroshiro128+ are its best ones
+        return (int)(nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        // Lemire's multiply-shift, rejecting the few values that would bias it
+        long m = (nextLong() >>> 32) * bound;
+        if ((m & 0xFFFFFFFFL) < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while ((m & 0xFFFFFFFFL) < threshold) {
+                m = (nextLong() >>> 32) * bound;
+            }
+        }
+        return (int)(m >>> 32);
+    }
+
+    // Private methods
+    private static long splitMix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
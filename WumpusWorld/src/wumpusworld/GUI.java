@@ -11,8 +11,8 @@ import javax.swing.border.LineBorder;
 import javax.swing.border.TitledBorder;
 
 /**
- * GUI for the Wumpus World. Only supports worlds of 
- * size 4.
+ * GUI for the Wumpus World. The board is rebuilt to
+ * the size of the current world.
  * 
  * @author Johan Hagelbäck
  */
@@ -33,6 +33,12 @@ public class GUI implements ActionListener
     private JTextField trainEpsStartField;
     private JTextField trainEpsMinField;
     private JTextField trainEpsDecayField;
+    private JProgressBar trainProgressBar;
+    private JTextField trainRateField;
+    private JButton trainCancelBtn;
+    private Trainer activeTrainer;
+    private javax.swing.Timer trainProgressTimer;
+    private long trainStartTime;
     private World w;
     private Agent agent;
     private JPanel[][] blocks;
@@ -68,7 +74,7 @@ public class GUI implements ActionListener
         }
         else
         {
-            w = MapGenerator.getRandomMap((int)System.currentTimeMillis()).generateWorld();
+            w = MapGenerator.getRandomMap((int)System.currentTimeMillis(), Config.getMapSize()).generateWorld();
         }
         
         l_breeze = new ImageIcon("gfx/B.png");
@@ -178,17 +184,29 @@ public class GUI implements ActionListener
         gamepanel = new JPanel();
         gamepanel.setMinimumSize(new Dimension(600,600));
         gamepanel.setBackground(Color.GRAY);
-        gamepanel.setLayout(new GridLayout(4,4));
+        initBlocks(w.getSize());
+    }
+    
+    /**
+     * Creates the board squares for a world size.
+     * 
+     * @param size World size
+     */
+    private void initBlocks(int size)
+    {
+        gamepanel.removeAll();
+        gamepanel.setLayout(new GridLayout(size,size));
         
         //Add blocks
-        blocks = new JPanel[4][4];
-        for (int j = 3; j >= 0; j--)
+        int blockSize = 600 / size;
+        blocks = new JPanel[size][size];
+        for (int j = size-1; j >= 0; j--)
         {
-            for (int i = 0; i < 4; i++)
+            for (int i = 0; i < size; i++)
             {
                 blocks[i][j] = new JPanel();
                 blocks[i][j].setBackground(Color.white);
-                blocks[i][j].setPreferredSize(new Dimension(150,150));
+                blocks[i][j].setPreferredSize(new Dimension(blockSize,blockSize));
                 blocks[i][j].setBorder(BorderFactory.createLineBorder(Color.black));
                 blocks[i][j].setLayout(new GridLayout(2,2));
                 gamepanel.add(blocks[i][j]);
@@ -502,7 +520,39 @@ public class GUI implements ActionListener
         trainLoadBtn.setActionCommand("TRAIN_LOAD");
         trainLoadBtn.addActionListener(this);
         gbc.gridy = 10; trainingPanel.add(trainLoadBtn, gbc);
-      
+        
+        // === Training progress ===
+        // ProgressBar - Episodes done
+        trainProgressBar = new JProgressBar(0, 1000);
+        trainProgressBar.setStringPainted(true);
+        trainProgressBar.setString("Not training");
+        gbc.gridy = 11; trainingPanel.add(trainProgressBar, gbc);
+        gbc.gridwidth = 1;
+        // Label - Episodes per second
+        JLabel labelTrainRate = new JLabel("Episodes/sec: ", SwingConstants.LEFT);
+        gbc.gridx = 0; gbc.weightx = 0.0;
+        gbc.gridy = 12; trainingPanel.add(labelTrainRate, gbc);
+        // TextField - Episodes per second
+        trainRateField = new JTextField();
+        trainRateField.setEditable(false);
+        gbc.gridx = 1; gbc.weightx = 1.0;
+        gbc.gridy = 12; trainingPanel.add(trainRateField, gbc);
+        gbc.gridx = 0; gbc.gridwidth = 2;
+        // Button - Cancel training
+        trainCancelBtn = new JButton("Cancel training");
+        trainCancelBtn.setActionCommand("TRAIN_CANCEL");
+        trainCancelBtn.addActionListener(this);
+        trainCancelBtn.setEnabled(false);
+        gbc.gridy = 13; trainingPanel.add(trainCancelBtn, gbc);
+        
+        // Progress readouts are refreshed by a timer instead of by the training
+        // ... itself, so repainting never slows down the training threads
+        trainProgressTimer = new javax.swing.Timer(500, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                refreshTrainingProgress();
+            }
+        });
        
         return trainingPanel;
     }
@@ -521,10 +571,10 @@ public class GUI implements ActionListener
         stateField.setText(Arrays.toString(currentState.getKey().getBytes(StandardCharsets.US_ASCII)));
         
         // Update Current QState value fields
-        Double[] actualQValues = currentState.getQValues();
+        double[] actualQValues = currentState.getQValues();
         for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
-            Double qval = actualQValues[i];
-            stateQValueFields[i].setText(qval.toString());       
+            double qval = actualQValues[i];
+            stateQValueFields[i].setText(Double.toString(qval));       
         }
         
         // Update Best Action field
@@ -537,6 +587,62 @@ public class GUI implements ActionListener
         System.out.println("QValues (raw): " + Arrays.toString(currentState.actionQValues));
     }
     
+    private void refreshTrainingProgress()
+    {
+        Trainer trainer = activeTrainer;
+        if (trainer == null) return;
+        
+        long done = trainer.getEpisodesDone();
+        long total = Math.max(1, trainer.getEpisodesTotal());
+        double seconds = (System.nanoTime() - trainStartTime) / 1e9;
+        
+        trainProgressBar.setValue((int)(1000 * done / total));
+        trainProgressBar.setString(done + " / " + total + " episodes");
+        trainRateField.setText(String.format("%.0f", done / Math.max(seconds, 1e-3)));
+        qtableCountField.setText(Integer.toString(trainer.getQStateCount()));
+    }
+    
+    /**
+     * Runs training on a background thread, the window stays responsive
+     * and shows progress until the training is done or cancelled.
+     * 
+     * @param trainer Trainer to run
+     * @param trainMaps Maps to train on
+     * @param trainEpisodes Episodes per map
+     */
+    private void startTraining(final Trainer trainer, final Vector<WorldMap> trainMaps, final int trainEpisodes)
+    {
+        activeTrainer = trainer;
+        trainStartTime = System.nanoTime();
+        trainCancelBtn.setEnabled(true);
+        trainProgressTimer.start();
+        
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() {
+                trainer.train(QTable.getInstance(), trainMaps, trainEpisodes);
+                return null;
+            }
+            
+            @Override
+            protected void done() {
+                trainProgressTimer.stop();
+                refreshTrainingProgress();
+                trainProgressBar.setString(trainer.isCancelled() ? "Training cancelled" : "Training done");
+                trainCancelBtn.setEnabled(false);
+                activeTrainer = null;
+                
+                try {
+                    get();
+                } catch (Exception ex) {
+                    JOptionPane.showMessageDialog(frame, "Training failed: " + ex.getMessage(), "Training error", JOptionPane.ERROR_MESSAGE);
+                }
+                refreshStats();
+            }
+        };
+        worker.execute();
+    }
+    
     /**
      * Button commands.
      * 
@@ -544,11 +650,22 @@ public class GUI implements ActionListener
      */
     public void actionPerformed(ActionEvent e)
     {
-        Double alpha;
-        Double gamma;
-        Double epsStart;
-        Double epsMin;
-        Double epsLDecay;                      
+        if (activeTrainer != null)
+        {
+            // The Q-table belongs to the training thread until training is done
+            if (e.getActionCommand().equals("TRAIN_CANCEL"))
+            {
+                activeTrainer.cancel();
+                trainCancelBtn.setEnabled(false);
+            }
+            return;
+        }
+        
+        double alpha;
+        double gamma;
+        double epsStart;
+        double epsMin;
+        double epsLDecay;                      
         int trainEpisodes;  
         
         try {
@@ -610,7 +727,7 @@ public class GUI implements ActionListener
             String s = (String)mapList.getSelectedItem();
             if (s.equalsIgnoreCase("Random"))
             {
-                w = MapGenerator.getRandomMap((int)System.currentTimeMillis()).generateWorld();
+                w = MapGenerator.getRandomMap((int)System.currentTimeMillis(), Config.getMapSize()).generateWorld();
             }
             else
             {
@@ -646,59 +763,40 @@ public class GUI implements ActionListener
                 JOptionPane.showMessageDialog(frame, "Invalid values for learning parameter fields", "Training error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
+            if (QTable.getInstance().isReadOnly()) {
+                JOptionPane.showMessageDialog(frame, "The Q-table is mapped read-only (QTableReadOnly=true) and can't be trained.", "Training error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
             
             // === TRAINING ===       
-            MyAgent trainAgent = (MyAgent)this.agent;
-            Double eps;
-            Double epsDecayStep = 1.0 / (trainEpisodes * epsLDecay);
-            System.out.println("=== TRAINING STARTED ==="); 
-            System.out.printf("trainEpisodes = %d\n", trainEpisodes);
-            System.out.printf("alpha         = %f\n", alpha);
-            System.out.printf("gamma         = %f\n", gamma);
-            System.out.printf("epsStart      = %f\n", epsStart);
-            System.out.printf("epsMin        = %f\n", epsMin);
-            System.out.printf("epsLDecay     = %f\n", epsLDecay);
-            System.out.printf("epsDecayStep  = %f\n", epsDecayStep);
+            Trainer trainer = new Trainer(alpha, gamma, epsStart, epsMin, epsLDecay);
+            if (Config.getValue("GUITrainParallel", "false").equalsIgnoreCase("true")) {
+                trainer.setThreads(Runtime.getRuntime().availableProcessors());
+            } else {
+                // Reproducible: the same fields and maps give the same table
+                trainer.setDeterministic(true, Config.getInt("TrainSeed", 0));
+            }
+            Vector<WorldMap> trainMaps = new Vector<>();
             
             if (e.getActionCommand().equals("TRAIN_SELECTED")) {
                 // Current map training
-                System.out.printf("> Started training on current map ...\n");
                 String s = (String)mapList.getSelectedItem();
                 if (s.equalsIgnoreCase("Random"))
                 {
-                    map = MapGenerator.getRandomMap((int)System.currentTimeMillis());
+                    map = MapGenerator.getRandomMap((int)System.currentTimeMillis(), Config.getMapSize());
                 }
                 else
                 {
                     int mapId = Integer.parseInt(s) - 1;
                     map = maps.get(mapId);
                 }                
-                
-                eps = epsStart;
-                for (int j = 0; j < trainEpisodes; j++) {
-                    eps = eps - epsDecayStep;
-                    eps = (eps < epsMin) ? epsMin : eps;
-                    trainAgent.trainEpisode(alpha, gamma, eps, map);
-                }
-                
-                System.out.printf("> ... done training through %d episodes on current map (epsilon after training: %f)\n", trainEpisodes, eps);
+                trainMaps.add(map);
             } else if (e.getActionCommand().equals("TRAIN_PREMADE")) {
-                // Premade map training                
-                for (int i = 0; i < 7; i++) {
-                    System.out.printf("> Started training on premade map %d/7 ...\n", i+1);
-                    map = maps.get(i);
-                    eps = epsStart;
-
-                    for (int j = 0; j < trainEpisodes; j++) {
-                        eps = eps - epsDecayStep;
-                        eps = (eps < epsMin) ? epsMin : eps;
-                        trainAgent.trainEpisode(alpha, gamma, eps, map);
-                    }
-                    System.out.printf("> ... done training through %d episodes on premade map %d/7 (epsilon after training: %f)\n", trainEpisodes, i+1, eps);
-                }
+                // Premade map training, all maps of the map file and the random ones
+                trainMaps.addAll(maps);
             }
-                      
-            refreshStats();
+            
+            startTraining(trainer, trainMaps, trainEpisodes);
         }
         
          if (e.getActionCommand().equals("TRAIN_SAVE") )
@@ -724,9 +822,15 @@ public class GUI implements ActionListener
      */
     private void updateGame()
     {
-        for (int i = 0; i < 4; i++)
+        int size = w.getSize();
+        if (blocks.length != size)
+        {
+            initBlocks(size);
+        }
+        
+        for (int i = 0; i < size; i++)
         {
-            for (int j = 0; j < 4; j++)
+            for (int j = 0; j < size; j++)
             {
                 blocks[i][j].removeAll();
                 blocks[i][j].setBackground(Color.WHITE);
@@ -0,0 +1,209 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Indexed set of maps to train or evaluate on, where map i is created on
+ * demand by getMap(i) instead of every WorldMap being held in memory.
+ *
+ * A corpus can be a list of maps already in memory (of), a range of
+ * generator seeds (fromGenerator) or a map file in the maps.txt format
+ * (fromFile). A map file is scanned once for the byte range of every
+ * complete map, after which each map is read and parsed on its own, in
+ * any order. getMap() may be called from several threads at once.
+ *
+ * @author Azeroc
+ */
+public abstract class MapCorpus {
+
+    /**
+     * Get number of maps
+     * @return map count
+     */
+    public abstract int size();
+
+    /**
+     * Create map
+     * @param index map index (0 .. size()-1)
+     * @return WorldMap object
+     */
+    public abstract WorldMap getMap(int index);
+
+    /**
+     * Get the order to visit the maps in
+     * @param rand random generator to shuffle with, or null for the maps in index order
+     * @return map indexes
+     */
+    public int[] order(Random rand) {
+        int[] order = new int[size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (rand != null) {
+            // Fisher-Yates shuffle
+            for (int i = order.length - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Create corpus of maps in memory
+     * @param maps maps
+     * @return MapCorpus object
+     */
+    public static MapCorpus of(final List<WorldMap> maps) {
+        return new MapCorpus() {
+            @Override
+            public int size() {
+                return maps.size();
+            }
+
+            @Override
+            public WorldMap getMap(int index) {
+                return maps.get(index);
+            }
+        };
+    }
+
+    /**
+     * Create corpus of random maps with seeds firstSeed .. firstSeed+count-1
+     * @param firstSeed seed of the first map
+     * @param count number of maps
+     * @param size world size
+     * @return MapCorpus object
+     */
+    public static MapCorpus fromGenerator(final int firstSeed, final int count, final int size) {
+        return new MapCorpus() {
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public WorldMap getMap(int index) {
+                return MapGenerator.getRandomMap(firstSeed + index, size);
+            }
+        };
+    }
+
+    /**
+     * Create corpus of the maps in a map file (see MapReader for the format)
+     * @param path map file path
+     * @return MapCorpus object
+     * @throws IOException if the file can't be read
+     */
+    public static MapCorpus fromFile(String path) throws IOException {
+        return new FileCorpus(path);
+    }
+
+    /**
+     * Maps of a map file, each read from its byte range when needed
+     */
+    private static class FileCorpus extends MapCorpus {
+        private final String path;
+        private long[] starts = new long[64];
+        private long[] ends = new long[64];
+        private int count = 0;
+
+        FileCorpus(String path) throws IOException {
+            this.path = path;
+            scan();
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public WorldMap getMap(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Map " + index + " of " + count);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate((int)(ends[index] - starts[index]));
+            try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, starts[index] + buf.position()) < 0) {
+                        throw new EOFException(path + " changed after it was scanned");
+                    }
+                }
+                String text = new String(buf.array(), StandardCharsets.ISO_8859_1);
+                return MapReader.readMap(new BufferedReader(new StringReader(text)));
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Could not read map " + index + " of " + path, ex);
+            }
+        }
+
+        /**
+         * Find the byte range of every map, from its NEW line up to and including its END line
+         */
+        private void scan() throws IOException {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(path), 1 << 16)) {
+                long pos = 0;
+                long lineStart = 0;
+                long mapStart = -1;
+                int head = 0; // First three characters of the line, upper case
+                int headLen = 0;
+                int c = in.read();
+
+                while (true) {
+                    if (c == '\n' || c == -1) {
+                        if (headLen == 3 && head == ('N' << 16 | 'E' << 8 | 'W')) {
+                            mapStart = lineStart;
+                        } else if (headLen == 3 && head == ('E' << 16 | 'N' << 8 | 'D') && mapStart >= 0) {
+                            add(mapStart, pos);
+                            mapStart = -1;
+                        }
+                        if (c == -1) {
+                            break;
+                        }
+                        head = 0;
+                        headLen = 0;
+                        lineStart = pos + 1;
+                    } else if (headLen < 3) {
+                        head = head << 8 | Character.toUpperCase(c);
+                        headLen++;
+                    }
+                    pos++;
+                    c = in.read();
+                }
+            }
+        }
+
+        private void add(long start, long end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+    }
+}
@@ -10,21 +10,36 @@ import java.util.Random;
 public class MapGenerator 
 {
     /**
-     * Generates a random Wumpus World map.
+     * Generates a random Wumpus World map of size 4.
      * 
      * @param seed Seed for the randomizer. Same seed always results in the same random map.
      * @return Generated Wumpus World
      */
     public static WorldMap getRandomMap(int seed)
+    {
+        return getRandomMap(seed, 4);
+    }
+    
+    /**
+     * Generates a random Wumpus World map of any size. The map
+     * gets 3 pits per 16 squares, like the size 4 maps.
+     * 
+     * @param seed Seed for the randomizer. Same seed always results in the same random map.
+     * @param size Size of the world
+     * @return Generated Wumpus World
+     */
+    public static WorldMap getRandomMap(int seed, int size)
     {
         Random rnd = new Random(seed);
-        WorldMap w = new WorldMap(4);
+        WorldMap w = new WorldMap(size);
         
         addRandomWumpus(w,rnd);
         addRandomGold(w,rnd);
-        addRandomPit(w,rnd);
-        addRandomPit(w,rnd);
-        addRandomPit(w,rnd);
+        int pits = Math.max(1, (size * size * 3) / 16);
+        for (int i = 0; i < pits; i++)
+        {
+            addRandomPit(w,rnd);
+        }
         
         return w;
     }
@@ -40,8 +55,8 @@ public class MapGenerator
         boolean valid = false;
         while (!valid)
         {
-            int x = rnd(r);
-            int y = rnd(r);
+            int x = rnd(r, w.getSize());
+            int y = rnd(r, w.getSize());
             if (!(x == 1 && y == 1) && !w.hasPit(x, y))
             {
                 valid = true;
@@ -61,8 +76,8 @@ public class MapGenerator
         boolean valid = false;
         while (!valid)
         {
-            int x = rnd(r);
-            int y = rnd(r);
+            int x = rnd(r, w.getSize());
+            int y = rnd(r, w.getSize());
             if (!(x == 1 && y == 1))
             {
                 valid = true;
@@ -82,8 +97,8 @@ public class MapGenerator
         boolean valid = false;
         while (!valid)
         {
-            int x = rnd(r);
-            int y = rnd(r);
+            int x = rnd(r, w.getSize());
+            int y = rnd(r, w.getSize());
             if (!(x == 1 && y == 1))
             {
                 valid = true;
@@ -93,13 +108,14 @@ public class MapGenerator
     }
     
     /**
+     * Returns a random position from 1 to size.
      * 
-     * 
-     * @param rnd
-     * @return 
+     * @param rnd Randomizer
+     * @param size Size of the world
+     * @return Random position
      */
-    private static int rnd(Random rnd)
+    private static int rnd(Random rnd, int size)
     {
-        return rnd.nextInt(4) + 1;
+        return rnd.nextInt(size) + 1;
     }
 }
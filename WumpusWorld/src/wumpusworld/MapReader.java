@@ -34,54 +34,11 @@ public class MapReader
         {
             BufferedReader reader = new BufferedReader(new FileReader(mapFilename));
             
-            WorldMap wm = null;
-            String line = reader.readLine();
-            while (line != null)
+            WorldMap wm = readMap(reader);
+            while (wm != null)
             {
-                line = line.toUpperCase();
-                
-                //New map
-                if (line.startsWith("NEW"))
-                {
-                    String[] t = split(line);
-                    int size = Integer.parseInt(t[1]);
-                    wm = new WorldMap(size);
-                }
-                
-                //Pit
-                if (line.startsWith("P"))
-                {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addPit(x,y);
-                }
-                
-                //Wumpus
-                if (line.startsWith("W"))
-                {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addWumpus(x,y);
-                }
-                
-                //Gold
-                if (line.startsWith("G"))
-                {
-                    String[] t = split(line);
-                    int x = Integer.parseInt(t[1]);
-                    int y = Integer.parseInt(t[2]);
-                    wm.addGold(x,y);
-                }
-                
-                //End of map
-                if (line.startsWith("END"))
-                {
-                    maps.add(wm);
-                }
-                
-                line = reader.readLine();
+                maps.add(wm);
+                wm = readMap(reader);
             }
             
             reader.close();
@@ -99,13 +56,74 @@ public class MapReader
         return maps;
     }
     
+    /**
+     * Reads the next map, from its NEW line up to its END line.
+     * 
+     * @param reader Reader positioned before the map
+     * @return The map, or null if there are no more maps.
+     * @throws IOException If the map can't be read
+     */
+    static WorldMap readMap(BufferedReader reader) throws IOException
+    {
+        WorldMap wm = null;
+        String line = reader.readLine();
+        while (line != null)
+        {
+            line = line.toUpperCase();
+            
+            //New map
+            if (line.startsWith("NEW"))
+            {
+                String[] t = split(line);
+                int size = Integer.parseInt(t[1]);
+                wm = new WorldMap(size);
+            }
+            
+            //Pit
+            if (line.startsWith("P"))
+            {
+                String[] t = split(line);
+                int x = Integer.parseInt(t[1]);
+                int y = Integer.parseInt(t[2]);
+                wm.addPit(x,y);
+            }
+            
+            //Wumpus
+            if (line.startsWith("W"))
+            {
+                String[] t = split(line);
+                int x = Integer.parseInt(t[1]);
+                int y = Integer.parseInt(t[2]);
+                wm.addWumpus(x,y);
+            }
+            
+            //Gold
+            if (line.startsWith("G"))
+            {
+                String[] t = split(line);
+                int x = Integer.parseInt(t[1]);
+                int y = Integer.parseInt(t[2]);
+                wm.addGold(x,y);
+            }
+            
+            //End of map
+            if (line.startsWith("END"))
+            {
+                return wm;
+            }
+            
+            line = reader.readLine();
+        }
+        return null;
+    }
+    
     /**
      * Splits a string with whitespace as delimiter.
      * 
      * @param line The string to split
      * @return Tokens
      */
-    private String[] split(String line)
+    private static String[] split(String line)
     {
         return line.split(" ");
     }
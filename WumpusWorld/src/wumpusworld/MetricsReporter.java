@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Takes TrainingMetrics snapshots at a fixed interval on a daemon thread
+ * and writes them to a file, one row per snapshot: CSV, or JSON lines
+ * if the file name ends with .json. The metrics can also be published
+ * as the JMX MBean JMX_NAME.
+ *
+ * @author Azeroc
+ */
+public class MetricsReporter {
+    public static final String JMX_NAME = "wumpusworld:type=TrainingMetrics";
+    
+    private final TrainingMetrics metrics;
+    private final long intervalMs;
+    private PrintWriter out;
+    private boolean json;
+    private ObjectName jmxName;
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * @param metrics metrics to report
+     * @param intervalMs snapshot interval in milliseconds
+     */
+    public MetricsReporter(TrainingMetrics metrics, long intervalMs) {
+        this.metrics = metrics;
+        this.intervalMs = Math.max(1, intervalMs);
+    }
+    
+    /**
+     * Write snapshots to a file, replacing it
+     * @param path CSV file, or JSON lines file if path ends with .json
+     * @throws IOException if the file can't be created
+     */
+    public void setFile(String path) throws IOException {
+        json = path.toLowerCase().endsWith(".json");
+        out = new PrintWriter(new FileWriter(path));
+        if (!json) {
+            out.println(TrainingMetrics.Snapshot.CSV_HEADER);
+        }
+    }
+    
+    /**
+     * Publish the metrics on the platform MBean server
+     */
+    public void enableJmx() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            jmxName = new ObjectName(JMX_NAME);
+            if (server.isRegistered(jmxName)) {
+                server.unregisterMBean(jmxName);
+            }
+            server.registerMBean(metrics, jmxName);
+        } catch (JMException ex) {
+            System.out.println("Could not register metrics MBean: " + ex.getMessage());
+            jmxName = null;
+        }
+    }
+    
+    /**
+     * Start taking snapshots
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "metrics-reporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stop taking snapshots, write a final one and close the file
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(intervalMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        report();
+        if (out != null) {
+            out.close();
+        }
+        if (jmxName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxName);
+            } catch (JMException ex) {
+                // Already gone
+            }
+        }
+    }
+    
+    // Private methods
+    private synchronized void report() {
+        TrainingMetrics.Snapshot s = metrics.snapshot();
+        if (out != null) {
+            out.println(json ? s.toJson() : s.toCsv());
+            out.flush();
+        }
+    }
+}
@@ -14,42 +14,80 @@ public class MyAgent implements Agent
     public static final int MAX_EP_LEN = 2500; // Max episode length (Max actions per episode)
     
     // CONSEQUENCE REWARDS
-    public static final Double REW_ACTION = 0.0; // Normal reward for action which didnt trigger other special rewards
-    public static final Double REW_GOLD = 10.0; // Grab gold
-    public static final Double REW_EXPLORE = 1.0; // Explore unexplored tiles
+    public static final double REW_ACTION = 0.0; // Normal reward for action which didnt trigger other special rewards
+    public static final double REW_GOLD = 10.0; // Grab gold
+    public static final double REW_EXPLORE = 1.0; // Explore unexplored tiles
     
     // Private members
     private final Random rand;    
     
     private final World w;
     
+    private final QTable qt;
+    
+    // Training metrics (optional) and the current and last episode's update totals
+    private TrainingMetrics metrics;
+    private boolean explicitTracking; // Set by setTrackUpdates, updates are also tracked while metrics are recorded
+    private boolean trackUpdates;
+    private int epSteps;
+    private double epReward;
+    private double epAbsDelta;
+    private double epMaxAbsDelta;
+    private int lastSteps;
+    private double lastAbsDelta;
+    private double lastMaxAbsDelta;
+    
+    // Experience replay (optional), every replayEvery steps a batch of replayBatch stored transitions is updated again
+    private ReplayBuffer replay;
+    private int replayBatch;
+    private int replayEvery;
+    private int replaySteps;
+    
+    // Planning (optional), planSteps model updates after every step
+    private DynaPlanner planner;
+    private int planSteps;
+    
     /**
      * Creates a new instance of your solver agent.
      * 
      * @param world Current world state 
      */
     public MyAgent(World world)
+    {
+        this(world, QTable.getInstance(), new FastRandom());
+    }
+    
+    /**
+     * Creates a new instance of your solver agent using the given
+     * Q-table and random generator (e.g. one FastRandom per training worker).
+     * 
+     * @param world Current world state 
+     * @param qtable Q-table to act on and learn into
+     * @param rand Random generator for action selection
+     */
+    public MyAgent(World world, QTable qtable, Random rand)
     {
         this.w = world;
-        this.rand = new Random();
+        this.qt = qtable;
+        this.rand = rand;
     }
     
     /**
      * Take action in World and observe reward from taking it
+     * (also used by ValueIterationSolver, so both learn the same rewards)
      * @param w World object
      * @param action QState action index
      * @return Reward of action consequence
      */
-    private Double observeAction(World w, int action) {
-        // Clone pre-action state and get its coords
-        World ow = w.cloneWorld();
+    static double observeAction(World w, int action) {
+        // Clear events of earlier actions
+        w.pollEvents();
         
         // Do action
         QState.doQStateAction(w, action);
         
-        // Get post-action state
-        int newX = w.getPlayerX();
-        int newY = w.getPlayerY();        
+        // Get post-action events
+        int events = w.pollEvents();
         
         // Player stepped on the gold after bad-risk and wumpus checks
         if (w.hasGold()) {
@@ -57,7 +95,7 @@ public class MyAgent implements Agent
         }
         
         // Exploring
-        if (ow.isUnknown(newX, newY)) {
+        if ((events & World.EV_NEW_SQUARE) != 0) {
             return REW_EXPLORE;
         }
 
@@ -72,16 +110,10 @@ public class MyAgent implements Agent
      * @param eps e-greedy epsilon
      * @return action index
      */
-    private int selectAction(QState state, Double eps) {
-        Double chance = rand.nextDouble();
-        
-        // Using epsilon (0.0 .. 1.0), determine whether to take random action
-        // ... or take best Q-value action
-        if (eps > chance) {
-            return state.argRandomAction(rand);
-        } else {
-            return state.argmaxAction();
-        }
+    private int selectAction(int state, double eps) {
+        // Using epsilon (0.0 .. 1.0), the table determines whether to take random action
+        // ... or take best Q-value action, on the state's legal action bitmask
+        return qt.selectAction(state, eps, rand);
     }
     
     /**
@@ -93,29 +125,50 @@ public class MyAgent implements Agent
      * @param actionOverride overwrite action selection with this if non-negative
      * @return early exit signal (go to a state with no valid actions to take)
      */
-    private boolean step(World w, Double eps, Double gamma, Double alpha) {
-        QTable qt = QTable.getInstance();
-        QState state = qt.getQStateFromWorld(w); // Current state
+    private boolean step(World w, double eps, double gamma, double alpha) {
+        int state = qt.getSlotFromWorld(w); // Current state
         
         int action = selectAction(state, eps); // Select action in current state
         if (action == -1) { // early exit signal (go to a state with no valid actions to take)
             return true;
         }
         
-        Double reward = observeAction(w, action); // Get reward for executing action from current state
-        QState nextState = qt.getQStateFromWorld(w); // State after action
-        Double currentVal = state.actionQValues[action];
-        Double futureMaxVal = nextState.argmaxValue(); // Get maximum future reward from next state
+        double reward = observeAction(w, action); // Get reward for executing action from current state
+        int nextState = qt.getSlotFromWorld(w); // State after action
+        double futureMaxVal = qt.argmaxValue(nextState); // Get maximum future reward from next state
         
         // Q-learning formula
         // s - current state, a - current state taken action
         // sn - next state, an[] - all next state actions
         // Q(s, a) = (1 - ALPHA) * Q(s, a) + ALPHA * ( REWARD + GAMMA * max(Q(sn, an[])) )
-        state.actionQValues[action] = (1.0 - alpha) * currentVal + alpha * (reward + gamma * futureMaxVal);
+        // The read-modify-write is done by the table so that it is atomic for concurrent tables
+        if (!trackUpdates) {
+            qt.updateQValue(state, action, alpha, reward + gamma * futureMaxVal);
+        } else {
+            double oldVal = qt.getQValue(state, action);
+            double delta = Math.abs(qt.updateQValue(state, action, alpha, reward + gamma * futureMaxVal) - oldVal);
+            epSteps++;
+            epReward += reward;
+            epAbsDelta += delta;
+            epMaxAbsDelta = Math.max(epMaxAbsDelta, delta);
+        }
+        
+        // QTable slots stay valid when new states are added, so the update
+        // ... above writes straight into the stored Q-values of the current state
+        
+        if (replay != null) {
+            replay.add(qt.getKeyHeader(state), qt.getKeyTiles(state), action, reward,
+                    qt.getKeyHeader(nextState), qt.getKeyTiles(nextState), w.gameOver());
+            if (++replaySteps >= replayEvery) {
+                replaySteps = 0;
+                replay.replay(qt, replayBatch, alpha, gamma, rand);
+            }
+        }
         
-        // Because parseQState will give ref which is stored in QTable (one way or another)
-        // ... then there is no need to re-insert it into table, we are simply
-        // ... updating existing QState entry fields
+        if (planner != null) {
+            planner.observe(state, action, reward, nextState, gamma);
+            planner.plan(planSteps, alpha, gamma);
+        }
         
         // No early exit yet
         return false;
@@ -127,12 +180,78 @@ public class MyAgent implements Agent
     @Override
     public void doAction()
     {
-        QTable qt = QTable.getInstance();
-        QState state = qt.getQStateFromWorld(w);
-        int action = state.argmaxAction();
+        int state = qt.getSlotFromWorld(w);
+        int action = (state != -1) ? qt.argmaxAction(state) : QState.parseFromWorldState(w).argmaxAction(); // -1: unseen state of a read-only table
         QState.doQStateAction(w, action);
     }
     
+    /**
+     * Record training episodes in metrics
+     * @param metrics TrainingMetrics object, or null to stop recording
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+        this.trackUpdates = explicitTracking || (metrics != null);
+    }
+    
+    /**
+     * Store training transitions and update batches of them again (experience replay)
+     * Replay updates are not part of the tracked updates
+     * @param replay ReplayBuffer object of this agent, or null to turn replay off
+     * @param batchSize transitions per replay batch
+     * @param every environment steps between replay batches
+     */
+    public void setReplay(ReplayBuffer replay, int batchSize, int every) {
+        this.replay = replay;
+        this.replayBatch = batchSize;
+        this.replayEvery = Math.max(1, every);
+        this.replaySteps = 0;
+    }
+    
+    /**
+     * Plan with a learned model between real steps (prioritized sweeping)
+     * Planning updates are not part of the tracked updates
+     * @param planner DynaPlanner object of this agent and its Q-table, or null to turn planning off
+     * @param steps planning updates after every real step
+     */
+    public void setPlanner(DynaPlanner planner, int steps) {
+        this.planner = planner;
+        this.planSteps = steps;
+    }
+    
+    /**
+     * Track Q-value updates of each training episode (see getLastEpisodeMaxAbsDelta)
+     * @param trackUpdates true to track updates
+     */
+    public void setTrackUpdates(boolean trackUpdates) {
+        this.explicitTracking = trackUpdates;
+        this.trackUpdates = explicitTracking || (metrics != null);
+    }
+    
+    /**
+     * Get number of Q-value updates in the last training episode (tracked updates only)
+     * @return update count
+     */
+    public int getLastEpisodeSteps() {
+        return lastSteps;
+    }
+    
+    /**
+     * Get sum of absolute Q-value changes in the last training episode (tracked updates only)
+     * @return sum of absolute changes
+     */
+    public double getLastEpisodeAbsDelta() {
+        return lastAbsDelta;
+    }
+    
+    /**
+     * Get largest absolute Q-value change in the last training episode (tracked updates only)
+     * @return largest absolute change
+     */
+    public double getLastEpisodeMaxAbsDelta() {
+        return lastMaxAbsDelta;
+    }
+    
     /**
      * Train episode using e-greedy Q-Learning
      * @param alpha Learning rate
@@ -140,7 +259,7 @@ public class MyAgent implements Agent
      * @param eps e-greedy epsilon
      * @param map WorldMap to train on
      */
-    public void trainEpisode(Double alpha, Double gamma, Double eps, WorldMap map) {
+    public void trainEpisode(double alpha, double gamma, double eps, WorldMap map) {
         World mapWorld = map.generateWorld();
         int actionsTaken = 0;
         
@@ -150,6 +269,19 @@ public class MyAgent implements Agent
 
             if (earlyExit || actionsTaken > MAX_EP_LEN) break;
         }
+        
+        if (trackUpdates) {
+            if (metrics != null) {
+                metrics.recordEpisode(epSteps, epReward, epAbsDelta, epMaxAbsDelta);
+            }
+            lastSteps = epSteps;
+            lastAbsDelta = epAbsDelta;
+            lastMaxAbsDelta = epMaxAbsDelta;
+            epSteps = 0;
+            epReward = 0;
+            epAbsDelta = 0;
+            epMaxAbsDelta = 0;
+        }
     }
 }
 
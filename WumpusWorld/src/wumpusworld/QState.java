@@ -5,6 +5,10 @@
  */
 package wumpusworld;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.nio.charset.StandardCharsets;
 import java.util.Random;
 
@@ -13,14 +17,18 @@ import java.util.Random;
  * @author Azeroc
  */
 public class QState  implements java.io.Serializable  {
-    public static final int TILE_ARR_SIZE = 16;
+    // Pinned to the value computed for the original class layout so that existing wumpus.ser files still load
+    private static final long serialVersionUID = 5890389384304780564L;
+    
+    public static final int TILE_ARR_SIZE = 16; // Tiles of the classic 4x4 world
+    public static final int DEFAULT_SIZE = 4;
     public static final int Q_ARR_SIZE = 7;
     public static final int KEY_SIZE = 1 + 1 + 1 + TILE_ARR_SIZE;
     public static final int BYTE_SIZE = KEY_SIZE + (Q_ARR_SIZE * 8);
     
     // Default Q-value indicating that it is uninitialized
-    public static final Double DEFAULT_VAL = 0.0;
-    public static final Double ILLEGAL_VAL = -10000.0;
+    public static final double DEFAULT_VAL = 0.0;
+    public static final double ILLEGAL_VAL = -10000.0;
     
     // Special state bitmask flags
     public static final byte NORMAL          = 0;  // 0000
@@ -46,17 +54,63 @@ public class QState  implements java.io.Serializable  {
     public static final int A_GRAB = 5;
     public static final int A_CLIMB = 6;
     
+    // Packed key layout
+    // Header long: bits 0-7 special flags, bits 8-15 playerX, bits 16-23 playerY,
+    //   bits 24-31 world size (0 for the default 4x4 size, so older snapshots stay valid), bit 63 always set
+    // Tiles long: 4-bit tile data per tile, tile index i at bits 4*i .. 4*i+3, for worlds of up to 16 tiles.
+    //   Larger worlds don't fit, their tiles long is a 64-bit fingerprint of the tile data instead,
+    //   so the key stays two longs at any size (states with equal fingerprints share a table entry).
+    public static final long KEY_USED = 1L << 63; // Never zero, so an all-zero header can mark empty table slots
+    
+    // Serialized layout of existing wumpus.ser files, where actionQValues was a Double[]
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("specialData", byte.class),
+        new ObjectStreamField("playerX", byte.class),
+        new ObjectStreamField("playerY", byte.class),
+        new ObjectStreamField("tileData", byte[].class),
+        new ObjectStreamField("actionQValues", Double[].class)
+    };
+    
     // QState's parsed data    
     public byte specialData;
     public byte playerX;
     public byte playerY;
-    public byte tileData[]; // 3x3 tile data around player
-    public Double actionQValues[]; // 5 Doubles for the Q values of 5 actions
+    public byte tileData[]; // size*size tile data, tile (x, y) at index (x-1) + (y-1)*size
+    public double actionQValues[]; // Q values of the Q_ARR_SIZE actions
+    
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        Double[] boxedValues = new Double[Q_ARR_SIZE];
+        for (int i = 0; i < Q_ARR_SIZE; i++) {
+            boxedValues[i] = this.actionQValues[i];
+        }
+        
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("specialData", this.specialData);
+        fields.put("playerX", this.playerX);
+        fields.put("playerY", this.playerY);
+        fields.put("tileData", this.tileData);
+        fields.put("actionQValues", boxedValues);
+        out.writeFields();
+    }
+    
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.specialData = fields.get("specialData", (byte)0);
+        this.playerX = fields.get("playerX", (byte)0);
+        this.playerY = fields.get("playerY", (byte)0);
+        this.tileData = (byte[])fields.get("tileData", null);
+        
+        Double[] boxedValues = (Double[])fields.get("actionQValues", null);
+        this.actionQValues = new double[Q_ARR_SIZE];
+        for (int i = 0; i < Q_ARR_SIZE; i++) {
+            this.actionQValues[i] = boxedValues[i];
+        }
+    }
     
     // QEntry's key for QTable
     // Combination of parsed data into string with exception of actionQValues
     public String getKey() {
-        byte[] keyBuf = new byte[KEY_SIZE];        
+        byte[] keyBuf = new byte[3 + this.tileData.length];        
         int keyItr = 0;
         
         // Special flags
@@ -66,23 +120,189 @@ public class QState  implements java.io.Serializable  {
         // PlayerY
         keyBuf[keyItr++] = this.playerY;
         // TileData
-        for (int i = 0; i < TILE_ARR_SIZE; i++) {
+        for (int i = 0; i < this.tileData.length; i++) {
             keyBuf[keyItr++] = this.tileData[i];
         }
         
         return new String(keyBuf, StandardCharsets.US_ASCII);
     }
     
+    /**
+     * Get packed header half of this state's key (special flags and player position)
+     * @return packed key header
+     */
+    public long getKeyHeader() {
+        return packKeyHeader(this.specialData, this.playerX, this.playerY, this.getSize());
+    }
+    
+    /**
+     * Get packed tile half of this state's key (one nibble per tile, or a fingerprint of them)
+     * @return packed key tiles
+     */
+    public long getKeyTiles() {
+        if (this.tileData.length <= TILE_ARR_SIZE) {
+            long tiles = 0;
+            for (int i = 0; i < this.tileData.length; i++) {
+                tiles |= (long)(this.tileData[i] & 0xF) << (4 * i);
+            }
+            return tiles;
+        }
+        
+        long fingerprint = 0;
+        long chunk = 0;
+        for (int i = 0; i < this.tileData.length; i++) {
+            chunk |= (long)(this.tileData[i] & 0xF) << (4 * (i & 15));
+            if ((i & 15) == 15) {
+                fingerprint = mixChunk(fingerprint, chunk);
+                chunk = 0;
+            }
+        }
+        return finishFingerprint(fingerprint, chunk, this.tileData.length);
+    }
+    
+    /**
+     * Get world size of this state
+     * @return world size
+     */
+    public int getSize() {
+        return (int)Math.round(Math.sqrt(this.tileData.length));
+    }
+    
+    /**
+     * Rebuild QState from a packed key, Q-values start as QState.DEFAULT_VAL
+     * Tile data can't be rebuilt from fingerprinted keys of worlds larger than 16 tiles, it is left empty then,
+     * so such a QState must not be stored back (its key would change)
+     * @param header packed key header
+     * @param tiles packed key tiles
+     * @return QState object
+     */
+    public static QState fromKey(long header, long tiles) {
+        QState state = new QState();
+        int size = getKeySize(header);
+        state.specialData = (byte)(header & 0xFF);
+        state.playerX = (byte)((header >>> 8) & 0xFF);
+        state.playerY = (byte)((header >>> 16) & 0xFF);
+        state.tileData = new byte[size * size];
+        state.actionQValues = new double[Q_ARR_SIZE];
+        
+        if (state.tileData.length <= TILE_ARR_SIZE) {
+            for (int i = 0; i < state.tileData.length; i++) {
+                state.tileData[i] = (byte)((tiles >>> (4 * i)) & 0xF);
+            }
+        }
+        for (int i = 0; i < Q_ARR_SIZE; i++) {
+            state.actionQValues[i] = DEFAULT_VAL;
+        }
+        return state;
+    }
+    
+    /**
+     * Get world size stored in a packed key header
+     * @param header packed key header
+     * @return world size
+     */
+    public static int getKeySize(long header) {
+        int size = (int)((header >>> 24) & 0xFF);
+        return (size == 0) ? DEFAULT_SIZE : size;
+    }
+    
+    private static long packKeyHeader(byte specialData, byte playerX, byte playerY, int size) {
+        return KEY_USED
+            | (specialData & 0xFF)
+            | ((long)(playerX & 0xFF) << 8)
+            | ((long)(playerY & 0xFF) << 16)
+            | ((long)((size == DEFAULT_SIZE) ? 0 : size & 0xFF) << 24);
+    }
+    
+    private static long mixChunk(long fingerprint, long chunk) {
+        long h = (fingerprint ^ chunk) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+    
+    private static long finishFingerprint(long fingerprint, long chunk, int tileCount) {
+        long h = mixChunk(fingerprint, chunk) ^ tileCount;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * Pack header half of the key for the current world state without creating a QState.
+     * Gives the same result as parseFromWorldState(w).getKeyHeader()
+     * @param w World object
+     * @return packed key header
+     */
+    public static long packKeyHeader(World w) {
+        int x = w.getPlayerX();
+        int y = w.getPlayerY();
+        boolean isOnGold = w.hasGlitter(x, y);
+        boolean isOnWumpus = w.hasWumpus(x, y);
+        
+        byte specialData = 0;
+        specialData = (byte)(specialData | (w.isSafeExplored() ? QState.TAKE_RISKS : 0));
+        specialData = (byte)(specialData | (isOnGold ? QState.ON_GOLD_STATE : 0));
+        specialData = (byte)(specialData | (isOnWumpus ? QState.ON_WUMPUS_STATE : 0));
+        specialData = (byte)(specialData | (w.isInPit() ? QState.IN_PIT : 0));
+        specialData = (byte)(specialData | (w.hasArrow() ? QState.HAS_ARROW : 0));
+        
+        if (isOnGold || isOnWumpus) {
+            return packKeyHeader(specialData, (byte)0, (byte)0, w.getSize());
+        }
+        return packKeyHeader(specialData, (byte)x, (byte)y, w.getSize());
+    }
+    
+    /**
+     * Pack tile half of the key for the current world state without creating a QState.
+     * Gives the same result as parseFromWorldState(w).getKeyTiles()
+     * @param w World object
+     * @return packed key tiles
+     */
+    public static long packKeyTiles(World w) {
+        int px = w.getPlayerX();
+        int py = w.getPlayerY();
+        if (w.hasGlitter(px, py) || w.hasWumpus(px, py)) {
+            return 0;
+        }
+        
+        int size = w.getSize();
+        if (size * size <= TILE_ARR_SIZE) {
+            long tiles = 0;
+            for (int x = 0; x < size; x++) {
+                for (int y = 0; y < size; y++) {
+                    int index = x + (y*size);
+                    tiles |= (long)parseTileData(w, x+1, y+1) << (4 * index);
+                }
+            }
+            return tiles;
+        }
+        
+        // Same fingerprint as getKeyTiles(), tiles in index order
+        long fingerprint = 0;
+        long chunk = 0;
+        int index = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++, index++) {
+                chunk |= (long)parseTileData(w, x+1, y+1) << (4 * (index & 15));
+                if ((index & 15) == 15) {
+                    fingerprint = mixChunk(fingerprint, chunk);
+                    chunk = 0;
+                }
+            }
+        }
+        return finishFingerprint(fingerprint, chunk, index);
+    }
+    
     /**
      * Get highest QValue possible from this state's actions
      * If no action Q-values have been initialized, then return 0.0
      * @return highest QValue
      */
-    public Double argmaxValue() {
-        Double max = this.actionQValues[0];
+    public double argmaxValue() {
+        double max = this.actionQValues[0];
         
         for (int i = 0; i < Q_ARR_SIZE; i++) {
-            Double val = this.actionQValues[i];
+            double val = this.actionQValues[i];
             max = (val > max) ? val : max;
         }
         
@@ -90,51 +310,82 @@ public class QState  implements java.io.Serializable  {
     }
     
     /**
-     * Get best action by highest Q value
-     * @return best action
+     * Get best legal action by highest Q value
+     * @return best action, 0 if no action is legal
      */
     public int argmaxAction() {
         int bestAction = 0;
-        Double max = this.actionQValues[0];
+        double max = Double.NEGATIVE_INFINITY;
         
-        for (int i = 0; i < Q_ARR_SIZE; i++) {
-            Double val = this.actionQValues[i];        
+        for (int legal = this.getLegalActionMask(); legal != 0; legal &= legal - 1) {
+            int i = Integer.numberOfTrailingZeros(legal);
+            double val = this.actionQValues[i];
             if (val > max) {
                 bestAction = i;
                 max = val;
             }
         }
         
-        return (bestAction > ILLEGAL_VAL) ? bestAction : -1;
+        return bestAction;
     }
     
+    /**
+     * Get random legal action
+     * @param rand random generator
+     * @return random legal action, or -1 if there are none
+     */
     public int argRandomAction(Random rand) {
-        int validActionCount = 0;
-        int[] validActions = new int[Q_ARR_SIZE];
-        
+        return nthLegalAction(this.getLegalActionMask(), rand);
+    }
+    
+    /**
+     * Get legal actions of this state from its Q-values (illegal actions hold ILLEGAL_VAL)
+     * @return legal action bitmask, bit i set if action i is legal
+     */
+    public int getLegalActionMask() {
+        return getLegalActionMask(this.actionQValues);
+    }
+    
+    /**
+     * Get legal actions from a state's Q-values (illegal actions hold ILLEGAL_VAL)
+     * @param values Q_ARR_SIZE Q-values
+     * @return legal action bitmask, bit i set if action i is legal
+     */
+    public static int getLegalActionMask(double[] values) {
+        int legal = 0;
         for (int i = 0; i < Q_ARR_SIZE; i++) {
-            Double qval = this.actionQValues[i];
-            if (qval > ILLEGAL_VAL) {
-                validActions[validActionCount] = i;
-                validActionCount++;
-            }            
+            if (values[i] > ILLEGAL_VAL) {
+                legal |= 1 << i;
+            }
         }
-        
-        if (validActionCount > 0) {
-            return validActions[rand.nextInt(validActionCount)];
-        } else {
+        return legal;
+    }
+    
+    /**
+     * Pick one of the legal actions of a bitmask uniformly at random
+     * Draws rand.nextInt(legal action count), the same as picking from an array of the legal actions
+     * @param legal legal action bitmask
+     * @param rand random generator
+     * @return random legal action, or -1 if there are none
+     */
+    static int nthLegalAction(int legal, Random rand) {
+        if (legal == 0) {
             return -1;
         }
+        for (int n = rand.nextInt(Integer.bitCount(legal)); n > 0; n--) {
+            legal &= legal - 1;
+        }
+        return Integer.numberOfTrailingZeros(legal);
     }
     
     /**
      * Get actual end-result Q-Values (converting uninitialized values to 0.0)
-     * @return QValue Double array
+     * @return QValue double array
      */
-    public Double[] getQValues() {
-        Double[] values = new Double[Q_ARR_SIZE];
+    public double[] getQValues() {
+        double[] values = new double[Q_ARR_SIZE];
         for (int i = 0; i < Q_ARR_SIZE; i++) {
-            Double val = this.actionQValues[i];
+            double val = this.actionQValues[i];
             values[i] = val;
         }
         return values;
@@ -153,8 +404,9 @@ public class QState  implements java.io.Serializable  {
     public static QState parseFromWorldState(World w) {
         // Init vars
         QState state = new QState(); 
-        state.tileData = new byte[TILE_ARR_SIZE];
-        state.actionQValues = new Double[Q_ARR_SIZE];
+        int size = w.getSize();
+        state.tileData = new byte[size * size];
+        state.actionQValues = new double[Q_ARR_SIZE];
         
         // World & player info
         state.playerX = (byte)(w.getPlayerX());
@@ -178,9 +430,9 @@ public class QState  implements java.io.Serializable  {
         state.specialData = (byte)(state.specialData | (hasArrow ? QState.HAS_ARROW : 0));
         
         // Parse tile data
-        for (int x = 0; x < 4; x++) {
-            for (int y = 0; y < 4; y++) {
-                int index = x + (y*4);
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int index = x + (y*size);
                 
                 if (isOnGold || isOnWumpus) {
                     state.tileData[index] = 0;
@@ -191,144 +443,104 @@ public class QState  implements java.io.Serializable  {
         }
         
         // Default vals for Q Action-Values
+        setInitialQValues(state.actionQValues, getLegalActionMask(w));
+        
+        return state;
+    }
+    
+    /**
+     * Set Q-values of a new state, QState.DEFAULT_VAL for legal and QState.ILLEGAL_VAL for illegal actions
+     * @param values Q_ARR_SIZE Q-values to set
+     * @param legal legal action bitmask
+     */
+    public static void setInitialQValues(double[] values, int legal) {
         for (int i = 0; i < Q_ARR_SIZE; i++) {
-            if (isQActionLegal(w, i)) {
-                state.actionQValues[i] = QState.DEFAULT_VAL;
+            if ((legal & (1 << i)) != 0) {
+                values[i] = QState.DEFAULT_VAL;
             } else {
-                state.actionQValues[i] = QState.ILLEGAL_VAL;
+                values[i] = QState.ILLEGAL_VAL;
             }            
         }
-        
-        return state;
     }
     
     public static boolean isQActionLegal(World w, int action) {
+        return (getLegalActionMask(w) & (1 << action)) != 0;
+    }
+    
+    /**
+     * Get legal actions of the current world state, all seven checked in one pass
+     * sharing the player position and knowledge lookups
+     * @param w World object
+     * @return legal action bitmask, bit i set if action i is legal
+     */
+    public static int getLegalActionMask(World w) {
+        // Climbing, the only legal action in a pit
+        if (w.isInPit()) {
+            return 1 << A_CLIMB;
+        }
+        
         int x = w.getPlayerX();
         int y = w.getPlayerY();
         boolean stench = w.hasStench(x, y);
         boolean wumpusConfirmed = w.isWumpusConfirmed();
         boolean safeExplored = w.isSafeExplored();
+        int legal = 0;
         
-        // Climbing
-        if (w.isInPit() && action != A_CLIMB) return false;
-        if (w.isInPit() && action == A_CLIMB) return true;
-        if (!w.isInPit() && action == A_CLIMB) return false;
+        // Moving
+        if (isMoveLegal(w, x, y+1, stench, wumpusConfirmed, safeExplored)) legal |= 1 << A_MOVE_UP;
+        if (isMoveLegal(w, x+1, y, stench, wumpusConfirmed, safeExplored)) legal |= 1 << A_MOVE_RIGHT;
+        if (isMoveLegal(w, x, y-1, stench, wumpusConfirmed, safeExplored)) legal |= 1 << A_MOVE_DOWN;
+        if (isMoveLegal(w, x-1, y, stench, wumpusConfirmed, safeExplored)) legal |= 1 << A_MOVE_LEFT;
         
-        // Moving up
-        if (action == A_MOVE_UP) {
-            if (!w.isValidPosition(x, y+1)) {
-                return false;
-            }
-            if (w.isMaybePitTile(x, y+1) && !safeExplored) {
-                return false;
-            }
-            if (w.confirmedWumpusTile(x, y+1)) {
-                return false;
-            }
-            if (stench && !wumpusConfirmed && w.isUnknown(x, y+1)) {
-                return false;
+        // Shooting arrow
+        if (w.hasArrow()) {
+            // Special case (when starting in a stench)
+            if ((w.isUnknown(1, 2) && w.isUnknown(2, 1) && w.hasStench(1, 1))
+                    || w.confirmedWumpusTile(x, y+1)
+                    || w.confirmedWumpusTile(x+1, y)
+                    || w.confirmedWumpusTile(x, y-1)
+                    || w.confirmedWumpusTile(x-1, y)) {
+                legal |= 1 << A_SHOOT;
             }
         }
         
-        // Moving right
-        if (action == A_MOVE_RIGHT) {
-            if (!w.isValidPosition(x+1, y)) {
-                return false;
-            }
-            if (w.isMaybePitTile(x+1, y) && !safeExplored) {
-                return false;
-            }
-            if (w.confirmedWumpusTile(x+1, y)) {
-                return false;
-            }
-            if (stench && !wumpusConfirmed && w.isUnknown(x+1, y)) {
-                return false;
-            }
+        // Grabbing gold
+        if (w.hasGlitter(x, y)) {
+            legal |= 1 << A_GRAB;
         }
         
-        // Moving down
-        if (action == A_MOVE_DOWN) {
-            if (!w.isValidPosition(x, y-1)) {
-                return false;
-            }
-            if (w.isMaybePitTile(x, y-1) && !safeExplored) {
-                return false;
-            }
-            if (w.confirmedWumpusTile(x, y-1)) {
-                return false;
-            }
-            if (stench && !wumpusConfirmed && w.isUnknown(x, y-1)) {
-                return false;
-            }
+        return legal;
+    }
+    
+    private static boolean isMoveLegal(World w, int x, int y, boolean stench, boolean wumpusConfirmed, boolean safeExplored) {
+        if (!w.isValidPosition(x, y)) {
+            return false;
         }
-        
-        // Moving left
-        if (action == A_MOVE_LEFT) {
-            if (!w.isValidPosition(x-1, y)) {
-                return false;
-            }
-            if (w.isMaybePitTile(x-1, y) && !safeExplored) {
-                return false;
-            }
-            if (w.confirmedWumpusTile(x-1, y)) {
-                return false;
-            }
-            if (stench && !wumpusConfirmed && w.isUnknown(x-1, y)) {
-                return false;
-            }
+        if (w.isMaybePitTile(x, y) && !safeExplored) {
+            return false;
         }
-        
-        // Shooting arrow
-        if (action == A_SHOOT) {
-            if (!w.hasArrow()) return false;
-            
-            // Special case (when starting in a stench)
-            if (w.isUnknown(1, 2) && w.isUnknown(2, 1) && w.hasStench(1, 1)) {
-                return true;
-            }            
-            
-            if (w.confirmedWumpusTile(x, y+1)) return true;
-            if (w.confirmedWumpusTile(x+1, y)) return true;
-            if (w.confirmedWumpusTile(x, y-1)) return true;
-            if (w.confirmedWumpusTile(x-1, y)) return true;
+        if (w.confirmedWumpusTile(x, y)) {
             return false;
         }
-        
-        // Grabbing gold
-        if (action == A_GRAB) {
-            if (!w.hasGlitter(x, y)) {
-                return false;
-            }
+        if (stench && !wumpusConfirmed && w.isUnknown(x, y)) {
+            return false;
         }
-        
         return true;
     }
     
     public static void doQStateAction(World w, int qstateAction) {
         switch (qstateAction) {
             case A_MOVE_UP:
-                if (w.getDirection() == World.DIR_DOWN) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_RIGHT) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_LEFT) w.doAction(World.A_TURN_RIGHT);
-                w.doAction(World.A_MOVE);
+                w.moveDirection(World.DIR_UP);
                 break;
             case A_MOVE_RIGHT:
-                if (w.getDirection() == World.DIR_LEFT) w.doAction(World.A_TURN_RIGHT);
-                if (w.getDirection() == World.DIR_UP) w.doAction(World.A_TURN_RIGHT);
-                if (w.getDirection() == World.DIR_DOWN) w.doAction(World.A_TURN_LEFT);
-                w.doAction(World.A_MOVE);
+                w.moveDirection(World.DIR_RIGHT);
                 break;
             case A_MOVE_DOWN:
-                if (w.getDirection() == World.DIR_UP) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_LEFT) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_RIGHT) w.doAction(World.A_TURN_RIGHT);
-                w.doAction(World.A_MOVE);
+                w.moveDirection(World.DIR_DOWN);
                 break;
             case A_MOVE_LEFT:
-                if (w.getDirection() == World.DIR_RIGHT) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_UP) w.doAction(World.A_TURN_LEFT);
-                if (w.getDirection() == World.DIR_DOWN) w.doAction(World.A_TURN_RIGHT);
-                w.doAction(World.A_MOVE);                
+                w.moveDirection(World.DIR_LEFT);
                 break;
             case A_SHOOT: // Automatically lock on confirmed Wumpus tile and then shoot the arrow (will be a miss if wumpus not present)
                 int playerX = w.getPlayerX();
@@ -338,15 +550,15 @@ public class QState  implements java.io.Serializable  {
                     if (w.getDirection() == World.DIR_RIGHT && w.confirmedWumpusTile(playerX+1, playerY  )) break;
                     if (w.getDirection() == World.DIR_DOWN  && w.confirmedWumpusTile(playerX,   playerY-1)) break;
                     if (w.getDirection() == World.DIR_LEFT  && w.confirmedWumpusTile(playerX-1, playerY  )) break;
-                    w.doAction(World.A_TURN_RIGHT);
+                    w.doAction(World.ACT_TURN_RIGHT);
                 }
-                w.doAction(World.A_SHOOT);
+                w.doAction(World.ACT_SHOOT);
                 break;
             case A_GRAB:
-                w.doAction(World.A_GRAB);
+                w.doAction(World.ACT_GRAB);
                 break;
             case A_CLIMB:
-                w.doAction(World.A_CLIMB);
+                w.doAction(World.ACT_CLIMB);
                 break;
         }
     }
@@ -7,18 +7,149 @@ package wumpusworld;
 
 import java.util.HashMap;
 import java.io.*;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
+ * Q-values of all known states, looked up by packed QState key.
+ *
+ * Off-heap and mapped tables keep all records in one ByteBuffer, whose
+ * offsets are ints, so they hold at most MAX_BUFFER_STATES states (2 GB
+ * of records); adding more throws IllegalStateException. A mapped table
+ * can be larger than the Java heap, but not larger than that.
  *
  * @author Azeroc
  */
 public class QTable {
-    private static final QTable QTABLE_SINGLETON = new QTable();    
-    private final HashMap<String, QState> _table;
+    private static final int INITIAL_CAPACITY = 1024; // Must be power of 2
+    
+    // Storage modes
+    public static final int STORAGE_HEAP = 0;     // Keys in long[], Q-values in double[]
+    public static final int STORAGE_OFF_HEAP = 1; // Keys and Q-values in a direct ByteBuffer
+    public static final int STORAGE_MAPPED = 2;   // Keys and Q-values in a memory-mapped snapshot file
+    
+    private static final QTable QTABLE_SINGLETON = createInstance();    
+    
+    // Q-table file of the old Java serialization format, imported when there is no snapshot yet
+    public static final String SERIALIZED_FILE = "wumpus.ser";
+    
+    // Off-heap entry record: key header, key tiles, Q_ARR_SIZE Q-values
+    public static final int RECORD_SIZE = 8 + 8 + (QState.Q_ARR_SIZE * 8);
+    
+    // Most states of an off-heap or mapped table, whose buffer offsets are ints
+    public static final int MAX_BUFFER_STATES = (Integer.MAX_VALUE - QTableSnapshot.HEADER_SIZE) / RECORD_SIZE;
+    
+    private final int _storage;
+    
+    // Entries are stored densely in insertion order, so an entry index (slot)
+    // stays valid for the lifetime of the table.
+    // Heap storage: entry i uses _keys[2*i], _keys[2*i+1] and _values[Q_ARR_SIZE*i ...]
+    private long[] _keys;
+    private double[] _values;
+    // Off-heap and mapped storage: entry i is the record at byte offset _base + RECORD_SIZE*i
+    private ByteBuffer _buffer;
+    private int _base;
+    private int _count;
+    
+    // Mapped storage: the buffer maps a QTableSnapshot file, whose header holds the record count
+    private FileChannel _channel;
+    private boolean _readOnly;
+    
+    // Open-addressing index from packed key to (entry index + 1), 0 marks an empty index slot
+    private int[] _index;
+    
+    // Legal action bitmask of every entry, all storage modes. Bit i is set while Q-value i is
+    // above QState.ILLEGAL_VAL (kept up to date by setQValue), so it is derived from the records
+    // rather than stored in them and is rebuilt from the Q-values when a file is opened.
+    private byte[] _legal;
     
     public QTable() {
-        _table = new HashMap<>();
+        this(STORAGE_HEAP);
+    }
+    
+    /**
+     * Create QTable with the selected storage
+     * @param storage STORAGE_HEAP or STORAGE_OFF_HEAP
+     */
+    public QTable(int storage) {
+        this(storage, true);
+    }
+    
+    /**
+     * Create QTable with or without storage of its own
+     * Without storage, the subclass keeps the states elsewhere and must override every
+     * method that reaches the storage (see ConcurrentQTable).
+     * @param storage STORAGE_HEAP or STORAGE_OFF_HEAP
+     * @param allocate false to leave the storage unallocated
+     */
+    protected QTable(int storage, boolean allocate) {
+        if (storage == STORAGE_MAPPED) {
+            throw new IllegalArgumentException("Mapped QTables are opened with QTable(path, readOnly)");
+        }
+        _storage = storage;
+        if (allocate) {
+            this.reset();
+        }
+    }
+    
+    /**
+     * Open QTable which operates directly on a memory-mapped snapshot file (see QTableSnapshot)
+     * The table is usable right away, only the key index is built when opening.
+     * A writable table creates the file if it doesn't exist and grows it as states are added,
+     * up to MAX_BUFFER_STATES states (2 GB).
+     * A read-only table can be opened by several processes at once, it can't be trained
+     * and getSlotFromWorld returns -1 for states which are not in the file.
+     * @param path snapshot file path
+     * @param readOnly true to map the file read-only
+     * @throws IOException if the file can't be opened, is not a supported snapshot or is truncated
+     */
+    public QTable(String path, boolean readOnly) throws IOException {
+        _storage = STORAGE_MAPPED;
+        _readOnly = readOnly;
+        _base = QTableSnapshot.HEADER_SIZE;
+        
+        if (readOnly) {
+            _channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        } else {
+            _channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        long fileSize = _channel.size();
+        boolean created = !readOnly && fileSize == 0;
+        if (!created) {
+            // Check the header before a writable table grows the file, so a truncated file is left as it is
+            _buffer = _channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize).order(ByteOrder.LITTLE_ENDIAN);
+            try {
+                _count = (int)QTableSnapshot.getHeaderCount(_buffer, fileSize, path);
+            } catch (IOException ex) {
+                _channel.close();
+                throw ex;
+            }
+        }
+        if (!readOnly) {
+            long size = Math.max(fileSize, _base + (long)INITIAL_CAPACITY * RECORD_SIZE);
+            _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                QTableSnapshot.putHeader(_buffer, 0);
+            }
+        }
+        
+        _index = new int[INITIAL_CAPACITY * 2];
+        _legal = new byte[INITIAL_CAPACITY];
+        this.ensureCapacity(_count);
+        this.rebuildIndex(_index.length);
+        for (int slot = 0; slot < _count; slot++) {
+            for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+                if (this.getQValue(slot, i) > QState.ILLEGAL_VAL) {
+                    _legal[slot] |= 1 << i;
+                }
+            }
+        }
     }
     
     // Public methods
@@ -31,42 +162,268 @@ public class QTable {
     }
     
     /**
-     * Store/Replace QState in QTable
+     * Create the singleton with the storage set by QTableStorage in config.txt
+     * Mapped storage maps QTableFile (read-only if QTableReadOnly=true)
+     */
+    private static QTable createInstance() {
+        int storage = Config.getQTableStorage();
+        if (storage == STORAGE_MAPPED) {
+            try {
+                return new QTable(Config.getQTableFile(), Config.getValue("QTableReadOnly", "false").equalsIgnoreCase("true"));
+            } catch (IOException ex) {
+                System.out.println("Could not map " + Config.getQTableFile() + ", using heap QTable: " + ex.getMessage());
+                return new QTable(STORAGE_HEAP);
+            }
+        }
+        return new QTable(storage);
+    }
+    
+    /**
+     * Store/Replace QState's Q-values in QTable
      * @param state QState object
      */
     public void storeQState(QState state) {
-        this._table.put(state.getKey(), state);
+        this.storeQValues(state.getKeyHeader(), state.getKeyTiles(), state.actionQValues);
+    }
+    
+    /**
+     * Store/Replace Q-values of a packed key in QTable
+     * @param header packed key header
+     * @param tiles packed key tiles
+     * @param values Q_ARR_SIZE Q-values
+     */
+    public void storeQValues(long header, long tiles, double[] values) {
+        int slot = this.getSlot(header, tiles);
+        if (slot == -1) {
+            this.insertState(header, tiles, values);
+        } else {
+            for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+                this.setQValue(slot, i, values[i]);
+            }
+        }
     }
     
     /**
-     * Get QState via key, returns null if QState at key doesn't exist
-     * @param key QState key
+     * Get copy of QState via packed key, returns null if QState at key doesn't exist
+     * Changing the returned QState does not change the QTable (see storeQState)
+     * Tile data is empty for fingerprinted keys of worlds larger than 16 tiles (see QState.fromKey)
+     * @param header packed key header (see QState.packKeyHeader)
+     * @param tiles packed key tiles (see QState.packKeyTiles)
      * @return QState object
      */
-    public QState getQState(String key) {
-        return _table.get(key);
+    public QState getQState(long header, long tiles) {
+        int slot = this.getSlot(header, tiles);
+        if (slot == -1) {
+            return null;
+        }
+        
+        QState state = QState.fromKey(header, tiles);
+        for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+            state.actionQValues[i] = this.getQValue(slot, i);
+        }
+        return state;
     }
     
     /**
-     * Parse QState from world and get full version from Q-table
+     * Parse QState from world and get copy of its full version from Q-table
      * @param w World object
      * @return World current state's QState
      */
     public QState getQStateFromWorld(World w) {
-        QState parsedState = QState.parseFromWorldState(w);
+        int slot = this.getSlotFromWorld(w);
+        QState state = QState.parseFromWorldState(w);
+        if (slot != -1) { // -1: state missing from read-only table
+            for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+                state.actionQValues[i] = this.getQValue(slot, i);
+            }
+        }
+        return state;
+    }
+    
+    /**
+     * Find slot of the current world state without inserting it
+     * Only reads the table, so concurrent readers are safe as long as nothing writes
+     * @param w World object
+     * @return slot of the state, or -1 if the state is not in the table
+     */
+    public int findSlotFromWorld(World w) {
+        return this.getSlot(QState.packKeyHeader(w), QState.packKeyTiles(w));
+    }
+    
+    /**
+     * Get slot of the world's current state, adding the state to the table if it doesn't exist
+     * New states start with QState.DEFAULT_VAL for legal and QState.ILLEGAL_VAL for illegal actions
+     * @param w World object
+     * @return slot of the state, or -1 if the state is missing from a read-only table
+     */
+    public int getSlotFromWorld(World w) {
+        long header = QState.packKeyHeader(w);
+        long tiles = QState.packKeyTiles(w);
+        int slot = this.getSlot(header, tiles);
+        
+        if (slot == -1 && !_readOnly) {
+            slot = this.insertState(header, tiles, QState.getLegalActionMask(w));
+        }
+        return slot;
+    }
+    
+    /**
+     * Get slot of a packed key
+     * @param header packed key header
+     * @param tiles packed key tiles
+     * @return slot of the state, or -1 if it is not in the table
+     */
+    public int getSlot(long header, long tiles) {
+        int mask = _index.length - 1;
+        int i = hash(header, tiles) & mask;
+        
+        while (_index[i] != 0) {
+            int slot = _index[i] - 1;
+            if (this.getKeyHeader(slot) == header && this.getKeyTiles(slot) == tiles) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+    
+    public long getKeyHeader(int slot) {
+        return (_buffer != null) ? _buffer.getLong(_base + RECORD_SIZE * slot) : _keys[2*slot];
+    }
+    
+    public long getKeyTiles(int slot) {
+        return (_buffer != null) ? _buffer.getLong(_base + RECORD_SIZE * slot + 8) : _keys[2*slot + 1];
+    }
+    
+    public double getQValue(int slot, int action) {
+        if (_buffer != null) {
+            return _buffer.getDouble(_base + RECORD_SIZE * slot + 16 + 8 * action);
+        }
+        return _values[QState.Q_ARR_SIZE * slot + action];
+    }
+    
+    public void setQValue(int slot, int action, double value) {
+        if (_buffer != null) {
+            _buffer.putDouble(_base + RECORD_SIZE * slot + 16 + 8 * action, value);
+        } else {
+            _values[QState.Q_ARR_SIZE * slot + action] = value;
+        }
+        if (value > QState.ILLEGAL_VAL) {
+            _legal[slot] |= 1 << action;
+        } else {
+            _legal[slot] &= ~(1 << action);
+        }
+    }
+    
+    /**
+     * Q-learning update of one action's Q-value
+     * Q(s, a) = (1 - alpha) * Q(s, a) + alpha * target
+     * @param slot state slot
+     * @param action QState action index
+     * @param alpha learning rate
+     * @param target learning target (reward + discounted future value)
+     * @return updated Q-value
+     */
+    public double updateQValue(int slot, int action, double alpha, double target) {
+        double value = (1.0 - alpha) * this.getQValue(slot, action) + alpha * target;
+        this.setQValue(slot, action, value);
+        return value;
+    }
+    
+    /**
+     * Get highest QValue possible from the state's actions
+     * @param slot state slot
+     * @return highest QValue
+     */
+    public double argmaxValue(int slot) {
+        // Walk the state's Q-value row directly instead of through getQValue
+        if (_buffer != null) {
+            int row = _base + RECORD_SIZE * slot + 16;
+            double max = _buffer.getDouble(row);
+            for (int i = 1; i < QState.Q_ARR_SIZE; i++) {
+                double val = _buffer.getDouble(row + 8 * i);
+                max = (val > max) ? val : max;
+            }
+            return max;
+        }
         
-        // Try to get current Q-Values from singleton QTable
-        String key = parsedState.getKey();
-        QState mappedState = this.getQState(key);
+        int row = QState.Q_ARR_SIZE * slot;
+        double max = _values[row];
+        for (int i = 1; i < QState.Q_ARR_SIZE; i++) {
+            double val = _values[row + i];
+            max = (val > max) ? val : max;
+        }
+        return max;
+    }
+    
+    /**
+     * Get best legal action of the state by highest Q value
+     * @param slot state slot
+     * @return best action, 0 if no action is legal
+     */
+    public int argmaxAction(int slot) {
+        int bestAction = 0;
+        double max = Double.NEGATIVE_INFINITY;
         
-        // Store parsed state in QTable it if it doesn't exist and return its ref as result
-        // Otherwise simply return stored QTable entry ref
-        if (mappedState == null) {          
-            this.storeQState(parsedState);            
-            return parsedState;
-        } else {            
-            return mappedState;
+        // Only the legal actions' Q-values are read, lowest action first so ties go to it
+        if (_buffer != null) {
+            int row = _base + RECORD_SIZE * slot + 16;
+            for (int legal = _legal[slot]; legal != 0; legal &= legal - 1) {
+                int i = Integer.numberOfTrailingZeros(legal);
+                double val = _buffer.getDouble(row + 8 * i);
+                if (val > max) {
+                    bestAction = i;
+                    max = val;
+                }
+            }
+            return bestAction;
+        }
+        
+        int row = QState.Q_ARR_SIZE * slot;
+        for (int legal = _legal[slot]; legal != 0; legal &= legal - 1) {
+            int i = Integer.numberOfTrailingZeros(legal);
+            double val = _values[row + i];
+            if (val > max) {
+                bestAction = i;
+                max = val;
+            }
+        }
+        return bestAction;
+    }
+    
+    /**
+     * Get random legal action of the state
+     * @param slot state slot
+     * @param rand random generator
+     * @return random legal action, or -1 if there are none
+     */
+    public int argRandomAction(int slot, Random rand) {
+        return QState.nthLegalAction(_legal[slot], rand);
+    }
+    
+    /**
+     * e-greedy action selection, a random legal action with probability eps and the best legal action otherwise
+     * Draws rand.nextDouble(), then rand.nextInt(legal action count) for a random action
+     * @param slot state slot
+     * @param eps e-greedy epsilon
+     * @param rand random generator (see FastRandom)
+     * @return selected action, or -1 for a random action of a state without legal actions
+     */
+    public int selectAction(int slot, double eps, Random rand) {
+        if (eps > rand.nextDouble()) {
+            return QState.nthLegalAction(_legal[slot], rand);
         }
+        return this.argmaxAction(slot);
+    }
+    
+    /**
+     * Get legal actions of the state, computed once when the state was added
+     * (an action whose Q-value is later trained above QState.ILLEGAL_VAL counts as legal)
+     * @param slot state slot
+     * @return legal action bitmask, bit i set if action i is legal
+     */
+    public int getLegalActionMask(int slot) {
+        return _legal[slot];
     }
     
     /**
@@ -74,40 +431,311 @@ public class QTable {
      * @return QState count
      */
     public int getQStateCount() {
-        return _table.size();
+        return _count;
+    }
+    
+    /**
+     * Get storage mode of the table
+     * @return STORAGE_HEAP, STORAGE_OFF_HEAP or STORAGE_MAPPED
+     */
+    public int getStorage() {
+        return _storage;
+    }
+    
+    public boolean isReadOnly() {
+        return _readOnly;
+    }
+    
+    /**
+     * Write changes of a mapped table to its file (no-op for other storage)
+     */
+    public void flush() {
+        if (_storage == STORAGE_MAPPED && !_readOnly) {
+            ((MappedByteBuffer)_buffer).force();
+        }
+    }
+    
+    /**
+     * Close the file of a mapped table, the table can't be used afterwards
+     * @throws IOException if closing fails
+     */
+    public void close() throws IOException {
+        if (_channel != null) {
+            this.flush();
+            _channel.close();
+        }
+    }
+    
+    /**
+     * Make room for a number of states, so that adding them doesn't need to grow the table
+     * @param capacity total number of states
+     */
+    public void ensureCapacity(int capacity) {
+        long entries = (_buffer != null) ? (_buffer.capacity() - _base) / RECORD_SIZE : _keys.length / 2;
+        if (entries < capacity) {
+            while (entries < capacity) entries *= 2;
+            if (_buffer != null) {
+                if (capacity > MAX_BUFFER_STATES) {
+                    throw new IllegalStateException("Off-heap and mapped QTables hold at most " + MAX_BUFFER_STATES + " states (2 GB)");
+                }
+                this.growBuffer((int)Math.min(entries, Integer.MAX_VALUE));
+            } else {
+                _keys = Arrays.copyOf(_keys, (int)entries * 2);
+                _values = Arrays.copyOf(_values, (int)entries * QState.Q_ARR_SIZE);
+            }
+        }
+        
+        if (capacity > _legal.length) {
+            int legalSize = _legal.length;
+            while (capacity > legalSize) legalSize *= 2;
+            _legal = Arrays.copyOf(_legal, legalSize);
+        }
+        
+        if (capacity * 2 > _index.length) {
+            int indexSize = _index.length;
+            while (capacity * 2 > indexSize) indexSize *= 2;
+            this.rebuildIndex(indexSize);
+        }
+    }
+    
+    /**
+     * Copy all QStates of this table into another table
+     * Rows are copied by their packed key, so fingerprinted keys of large worlds stay intact.
+     * @param target table to store the QStates in
+     */
+    public void copyTo(QTable target) {
+        double[] row = new double[QState.Q_ARR_SIZE];
+        for (int i = 0; i < _count; i++) {
+            for (int a = 0; a < QState.Q_ARR_SIZE; a++) {
+                row[a] = this.getQValue(i, a);
+            }
+            target.storeQValues(this.getKeyHeader(i), this.getKeyTiles(i), row);
+        }
+    }
+    
+    /**
+     * Remove all QStates from the table
+     */
+    public void clear() {
+        this.reset();
+    }
+    
+    /**
+     * Add state which is not in the table yet
+     * @param header packed key header
+     * @param tiles packed key tiles
+     * @param values initial Q-values
+     * @return slot of the new state
+     */
+    protected int insertState(long header, long tiles, double[] values) {
+        int slot = this.insert(header, tiles);
+        for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+            this.setQValue(slot, i, values[i]);
+        }
+        return slot;
+    }
+    
+    /**
+     * Add new state which is not in the table yet
+     * Q-values start as QState.DEFAULT_VAL for legal and QState.ILLEGAL_VAL for illegal actions
+     * @param header packed key header
+     * @param tiles packed key tiles
+     * @param legal legal action bitmask (see QState.getLegalActionMask)
+     * @return slot of the new state
+     */
+    protected int insertState(long header, long tiles, int legal) {
+        int slot = this.insert(header, tiles);
+        for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+            this.setQValue(slot, i, ((legal & (1 << i)) != 0) ? QState.DEFAULT_VAL : QState.ILLEGAL_VAL);
+        }
+        return slot;
+    }
+    
+    // Private methods
+    private void reset() {
+        if (_storage == STORAGE_MAPPED) {
+            QTableSnapshot.putHeader(_buffer, 0);
+        } else if (_storage == STORAGE_OFF_HEAP) {
+            _buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        } else {
+            _keys = new long[INITIAL_CAPACITY * 2];
+            _values = new double[INITIAL_CAPACITY * QState.Q_ARR_SIZE];
+        }
+        _index = new int[INITIAL_CAPACITY * 2];
+        _legal = new byte[INITIAL_CAPACITY];
+        _count = 0;
+    }
+    
+    static int hash(long header, long tiles) {
+        long h = header * 0x9E3779B97F4A7C15L ^ tiles;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+    
+    /**
+     * Append new entry for a key that is not in the table yet
+     * @return slot of the new entry
+     */
+    private int insert(long header, long tiles) {
+        int slot = _count;
+        
+        if (_buffer != null) {
+            if (_base + (long)(slot + 1) * RECORD_SIZE > _buffer.capacity()) {
+                this.growBuffer((int)Math.min(2L * ((_buffer.capacity() - _base) / RECORD_SIZE), Integer.MAX_VALUE));
+            }
+            _buffer.putLong(_base + RECORD_SIZE * slot, header);
+            _buffer.putLong(_base + RECORD_SIZE * slot + 8, tiles);
+        } else {
+            if (2*slot >= _keys.length) {
+                _keys = Arrays.copyOf(_keys, _keys.length * 2);
+                _values = Arrays.copyOf(_values, _values.length * 2);
+            }
+            _keys[2*slot] = header;
+            _keys[2*slot + 1] = tiles;
+        }
+        if (slot == _legal.length) {
+            _legal = Arrays.copyOf(_legal, _legal.length * 2);
+        }
+        _count++;
+        if (_storage == STORAGE_MAPPED) {
+            QTableSnapshot.putHeaderCount(_buffer, _count);
+        }
+        
+        if (_count * 2 > _index.length) {
+            this.rebuildIndex(_index.length * 2);
+        } else {
+            this.addToIndex(slot);
+        }
+        return slot;
+    }
+    
+    private void growBuffer(int entries) {
+        if (entries > MAX_BUFFER_STATES) {
+            if (_count >= MAX_BUFFER_STATES) {
+                throw new IllegalStateException("Off-heap and mapped QTables hold at most " + MAX_BUFFER_STATES + " states (2 GB)");
+            }
+            entries = MAX_BUFFER_STATES;
+        }
+        if (_storage == STORAGE_MAPPED) {
+            // Mapping past the end of the file grows the file
+            try {
+                _buffer = _channel.map(FileChannel.MapMode.READ_WRITE, 0, _base + (long)entries * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return;
+        }
+        
+        ByteBuffer grown = ByteBuffer.allocateDirect(entries * RECORD_SIZE).order(ByteOrder.nativeOrder());
+        _buffer.clear();
+        grown.put(_buffer);
+        _buffer = grown;
+    }
+    
+    private void rebuildIndex(int size) {
+        _index = new int[size];
+        for (int i = 0; i < _count; i++) {
+            this.addToIndex(i);
+        }
     }
     
+    private void addToIndex(int slot) {
+        int mask = _index.length - 1;
+        int i = hash(this.getKeyHeader(slot), this.getKeyTiles(slot)) & mask;
+        
+        while (_index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        _index[i] = slot + 1;
+    }
+    
+    /**
+     * Save table to the snapshot file set by QTableFile in config.txt
+     */
     public void saveToFile()
+    {
+        if (_storage == STORAGE_MAPPED) {
+            // The mapped file already is the snapshot
+            this.flush();
+            System.out.printf("> saved... %d objects", this.getQStateCount());
+            return;
+        }
+        this.saveToFile(Config.getQTableFile());
+    }
+    
+    /**
+     * Save table to a snapshot file (see QTableSnapshot)
+     * @param path snapshot file path
+     */
+    public void saveToFile(String path)
     {
         try 
         {
-            FileOutputStream fileOut =
-         new FileOutputStream("wumpus.ser");
-         ObjectOutputStream out = new ObjectOutputStream(fileOut);
-         out.writeObject(_table);
-          System.out.printf("> saved... %d objects", _table.size() );
-         out.close();
-         fileOut.close();
-          }
+            QTableSnapshot.write(this, path);
+            System.out.printf("> saved... %d objects", this.getQStateCount());
+        }
         catch (IOException i) {
-         i.printStackTrace();
-           }
+            i.printStackTrace();
+        }
     }
     
-     
+    /**
+     * Load table from the snapshot file set by QTableFile in config.txt
+     * If there is no snapshot yet, import the old wumpus.ser file instead
+     */
     public void loadFromFile()
+    {
+        String path = Config.getQTableFile();
+        if (_storage == STORAGE_MAPPED) {
+            // States are read from the mapped file on demand
+            System.out.printf("> mapped... %d objects", this.getQStateCount());
+            return;
+        }
+        if (!new File(path).exists() && new File(SERIALIZED_FILE).exists()) {
+            this.importSerialized(SERIALIZED_FILE);
+        } else {
+            this.loadFromFile(path);
+        }
+    }
+    
+    /**
+     * Replace table contents with a snapshot file (see QTableSnapshot)
+     * @param path snapshot file path
+     */
+    public void loadFromFile(String path)
+    {
+        try 
+        {
+            this.clear();
+            QTableSnapshot.read(this, path);
+            System.out.printf("> loaded... %d objects", this.getQStateCount());
+        }
+        catch (IOException i) {
+            i.printStackTrace();
+        }
+    }
+    
+    /**
+     * Replace table contents with a Java serialized HashMap<String, QState> (old wumpus.ser format)
+     * @param path serialized file path
+     */
+    public void importSerialized(String path)
     {
         try 
         {
             FileInputStream fileOut =
-         new FileInputStream("wumpus.ser");
+         new FileInputStream(path);
          ObjectInputStream in = new ObjectInputStream(fileOut);
          HashMap<String, QState> tab;
          tab = (HashMap) in.readObject();
-           System.out.printf("> loaded... %d objects", tab.size() );
+           System.out.printf("> imported... %d objects from %s", tab.size(), path);
            
-           _table.clear();
-           _table.putAll(tab);
+           this.clear();
+           for (QState state : tab.values()) {
+               this.storeQState(state);
+           }
          
          in.close();
          fileOut.close();
@@ -0,0 +1,162 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary QTable snapshot format, read and written through a FileChannel.
+ *
+ * Layout (little-endian):
+ *   header  - magic (int), version (int), record size (int), Q_ARR_SIZE (int), record count (long), reserved (long)
+ *   records - record count fixed-size records of QTable.RECORD_SIZE bytes:
+ *             key header (long), key tiles (long), Q_ARR_SIZE Q-values (double)
+ *
+ * A snapshot file can also be memory-mapped as QTable storage (QTable.STORAGE_MAPPED),
+ * in which case the file may be longer than the records, as room for new states.
+ *
+ * @author Azeroc
+ */
+public class QTableSnapshot {
+    public static final int MAGIC = 0x57515442; // "WQTB"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+
+    private static final int RECORDS_PER_CHUNK = 4096;
+
+    /**
+     * Write all states of a table to a snapshot file, replacing the file if it exists
+     * @param qt QTable to write (not a ConcurrentQTable, copy it to a QTable first)
+     * @param path snapshot file path
+     * @throws IOException if the file can't be written
+     */
+    public static void write(QTable qt, String path) throws IOException {
+        int count = qt.getQStateCount();
+        ByteBuffer buf = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * QTable.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            putHeader(buf, count);
+            buf.position(HEADER_SIZE);
+
+            for (int slot = 0; slot < count; slot++) {
+                if (buf.remaining() < QTable.RECORD_SIZE) {
+                    flush(channel, buf);
+                }
+                buf.putLong(qt.getKeyHeader(slot));
+                buf.putLong(qt.getKeyTiles(slot));
+                for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+                    buf.putDouble(qt.getQValue(slot, i));
+                }
+            }
+            flush(channel, buf);
+        }
+    }
+
+    /**
+     * Read all states of a snapshot file into a table, replacing states with the same key
+     * @param qt QTable to read into
+     * @param path snapshot file path
+     * @return number of states read
+     * @throws IOException if the file can't be read, is not a supported snapshot or is truncated
+     */
+    public static int read(QTable qt, String path) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(RECORDS_PER_CHUNK * QTable.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values = new double[QState.Q_ARR_SIZE];
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            buf.limit(HEADER_SIZE);
+            fill(channel, buf);
+            buf.flip();
+            long count = getHeaderCount(buf, channel.size(), path);
+
+            qt.ensureCapacity(qt.getQStateCount() + (int)count);
+            long remaining = count;
+            while (remaining > 0) {
+                int records = (int)Math.min(remaining, RECORDS_PER_CHUNK);
+                buf.clear();
+                buf.limit(records * QTable.RECORD_SIZE);
+                fill(channel, buf);
+                buf.flip();
+
+                for (int r = 0; r < records; r++) {
+                    long header = buf.getLong();
+                    long tiles = buf.getLong();
+                    for (int i = 0; i < QState.Q_ARR_SIZE; i++) {
+                        values[i] = buf.getDouble();
+                    }
+                    qt.storeQValues(header, tiles, values);
+                }
+                remaining -= records;
+            }
+            return (int)count;
+        }
+    }
+
+    /**
+     * Put snapshot header at the start of a buffer (absolute, the buffer position is not changed)
+     * @param buf buffer with little-endian byte order
+     * @param count record count
+     */
+    static void putHeader(ByteBuffer buf, long count) {
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, QTable.RECORD_SIZE);
+        buf.putInt(12, QState.Q_ARR_SIZE);
+        putHeaderCount(buf, count);
+        buf.putLong(24, 0);
+    }
+    
+    static void putHeaderCount(ByteBuffer buf, long count) {
+        buf.putLong(16, count);
+    }
+    
+    /**
+     * Check snapshot header at the start of a buffer and get its record count
+     * @param buf buffer with little-endian byte order
+     * @param fileSize size of the snapshot file in bytes
+     * @param path file path for error messages
+     * @return record count
+     * @throws IOException if the header is not a supported snapshot header or the file is too short for its records
+     */
+    static long getHeaderCount(ByteBuffer buf, long fileSize, String path) throws IOException {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a QTable snapshot");
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION || buf.getInt(8) != QTable.RECORD_SIZE || buf.getInt(12) != QState.Q_ARR_SIZE) {
+            throw new IOException(path + " has unsupported snapshot version " + version);
+        }
+        long count = buf.getLong(16);
+        if (count < 0 || count > (fileSize - HEADER_SIZE) / QTable.RECORD_SIZE) {
+            throw new IOException(path + " is truncated: " + count + " records don't fit in " + fileSize + " bytes");
+        }
+        return count;
+    }
+
+    // Private methods
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static void fill(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException("Unexpected end of QTable snapshot");
+            }
+        }
+    }
+}
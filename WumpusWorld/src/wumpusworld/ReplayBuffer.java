@@ -0,0 +1,148 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Random;
+
+/**
+ * Experience replay store of training transitions, in a ring of primitive
+ * arrays where each new transition replaces the oldest once the buffer is
+ * full. States are kept by packed key rather than by slot, so a buffer is
+ * valid for any table with the same states. replay() updates a uniformly
+ * sampled batch with targets from the Q-values before the batch.
+ *
+ * @author Azeroc
+ */
+public class ReplayBuffer {
+    private final long[] _headers;
+    private final long[] _tiles;
+    private final byte[] _actions;
+    private final double[] _rewards;
+    private final long[] _nextHeaders;
+    private final long[] _nextTiles;
+    private final boolean[] _terminal;
+    private int _size;
+    private int _next; // Index the next transition is written to
+
+    // Per-batch scratch space, grown to the largest batch
+    private int[] _batch = new int[0];
+    private int[] _slots = new int[0];
+    private int[] _nextSlots = new int[0];
+    private double[] _targets = new double[0];
+
+    /**
+     * @param capacity most transitions kept
+     */
+    public ReplayBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Replay capacity must be at least 1");
+        }
+        _headers = new long[capacity];
+        _tiles = new long[capacity];
+        _actions = new byte[capacity];
+        _rewards = new double[capacity];
+        _nextHeaders = new long[capacity];
+        _nextTiles = new long[capacity];
+        _terminal = new boolean[capacity];
+    }
+
+    /**
+     * Store transition, replacing the oldest one if the buffer is full
+     * @param header packed key header of the state
+     * @param tiles packed key tiles of the state
+     * @param action QState action index taken
+     * @param reward reward of the action
+     * @param nextHeader packed key header of the state after the action
+     * @param nextTiles packed key tiles of the state after the action
+     * @param terminal true if the game was over after the action
+     */
+    public void add(long header, long tiles, int action, double reward, long nextHeader, long nextTiles, boolean terminal) {
+        int i = _next;
+        _headers[i] = header;
+        _tiles[i] = tiles;
+        _actions[i] = (byte)action;
+        _rewards[i] = reward;
+        _nextHeaders[i] = nextHeader;
+        _nextTiles[i] = nextTiles;
+        _terminal[i] = terminal;
+
+        _next = (i + 1 == _headers.length) ? 0 : i + 1;
+        if (_size < _headers.length) {
+            _size++;
+        }
+    }
+
+    /**
+     * Apply Q-learning updates to a batch of stored transitions, sampled uniformly with replacement
+     * Transitions whose states are not in the table are skipped.
+     * @param qt QTable to update
+     * @param batchSize number of transitions to sample
+     * @param alpha learning rate
+     * @param gamma discount factor
+     * @param rand random generator
+     * @return number of updates applied
+     */
+    public int replay(QTable qt, int batchSize, double alpha, double gamma, Random rand) {
+        if (_size == 0 || batchSize < 1) {
+            return 0;
+        }
+        if (_batch.length < batchSize) {
+            _batch = new int[batchSize];
+            _slots = new int[batchSize];
+            _nextSlots = new int[batchSize];
+            _targets = new double[batchSize];
+        }
+
+        // Sample and look up the states
+        int n = 0;
+        for (int b = 0; b < batchSize; b++) {
+            int i = rand.nextInt(_size);
+            int slot = qt.getSlot(_headers[i], _tiles[i]);
+            if (slot == -1) {
+                continue;
+            }
+            int nextSlot = -1;
+            if (!_terminal[i]) {
+                nextSlot = qt.getSlot(_nextHeaders[i], _nextTiles[i]);
+                if (nextSlot == -1) {
+                    continue;
+                }
+            }
+            _batch[n] = i;
+            _slots[n] = slot;
+            _nextSlots[n] = nextSlot;
+            n++;
+        }
+
+        // Targets, all from the Q-values before this batch
+        for (int b = 0; b < n; b++) {
+            int i = _batch[b];
+            _targets[b] = _terminal[i] ? _rewards[i] : _rewards[i] + gamma * qt.argmaxValue(_nextSlots[b]);
+        }
+
+        // Updates
+        for (int b = 0; b < n; b++) {
+            qt.updateQValue(_slots[b], _actions[_batch[b]], alpha, _targets[b]);
+        }
+        return n;
+    }
+
+    /**
+     * Remove all transitions
+     */
+    public void clear() {
+        _size = 0;
+        _next = 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public int capacity() {
+        return _headers.length;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Arrays;
+
+/**
+ * Runs an agent in a world until the game is over, with guards against
+ * games that never end:
+ *   - an action budget,
+ *   - cycle detection: the game stops when the same state (packed QState key)
+ *     is reached more than maxRepeats times, which for a greedy policy means
+ *     it is going around in circles (or not moving at all),
+ *   - a wall-clock timeout per game.
+ *
+ * One runner is meant to be used by one thread, it reuses its state key set
+ * between games.
+ *
+ * @author Azeroc
+ */
+public class SimulationRunner {
+    public static final int DEFAULT_MAX_ACTIONS = 10000;
+    public static final int DEFAULT_MAX_REPEATS = 3;
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    
+    // Reasons a game ended
+    public static final int END_GAME_OVER = 0; // Game ended normally
+    public static final int END_BUDGET = 1;    // Action budget used up
+    public static final int END_CYCLE = 2;     // Same state reached too often
+    public static final int END_TIMEOUT = 3;   // Wall-clock timeout
+    
+    private static final int INITIAL_CAPACITY = 256; // Must be power of 2
+    
+    private int maxActions = DEFAULT_MAX_ACTIONS;
+    private int maxRepeats = DEFAULT_MAX_REPEATS;
+    private long timeoutNanos = DEFAULT_TIMEOUT_MS * 1000000L;
+    private int actions;
+    
+    // Visited state keys of the current game, open addressing on (header, tiles)
+    private long[] _keys = new long[INITIAL_CAPACITY * 2];
+    private int[] _visits = new int[INITIAL_CAPACITY];
+    private int _count;
+    
+    /**
+     * Set number of actions after which a game is stopped
+     * @param maxActions action budget per game
+     */
+    public void setMaxActions(int maxActions) {
+        this.maxActions = Math.max(1, maxActions);
+    }
+    
+    /**
+     * Set how often a state may be reached again before the game is stopped as a cycle
+     * @param maxRepeats repeats per state, 0 disables cycle detection
+     */
+    public void setMaxRepeats(int maxRepeats) {
+        this.maxRepeats = Math.max(0, maxRepeats);
+    }
+    
+    /**
+     * Set wall-clock time after which a game is stopped
+     * @param timeoutMs timeout per game in milliseconds, 0 disables the timeout
+     */
+    public void setTimeoutMs(long timeoutMs) {
+        this.timeoutNanos = Math.max(0, timeoutMs) * 1000000L;
+    }
+    
+    /**
+     * Get number of actions taken in the last game
+     * @return action count
+     */
+    public int getActions() {
+        return actions;
+    }
+    
+    /**
+     * Play a game
+     * @param w World the agent acts in
+     * @param agent Agent to run
+     * @return END_GAME_OVER, or the guard that stopped the game
+     */
+    public int run(World w, Agent agent) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        actions = 0;
+        if (maxRepeats > 0) {
+            this.clearStates();
+        }
+        
+        while (!w.gameOver()) {
+            if (actions >= maxActions) {
+                return END_BUDGET;
+            }
+            if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+                return END_TIMEOUT;
+            }
+            if (maxRepeats > 0 && this.visit(QState.packKeyHeader(w), QState.packKeyTiles(w)) > maxRepeats + 1) {
+                return END_CYCLE;
+            }
+            
+            agent.doAction();
+            actions++;
+        }
+        return END_GAME_OVER;
+    }
+    
+    /**
+     * Get description of a game end reason
+     * @param end END_* constant
+     * @return description
+     */
+    public static String describe(int end) {
+        switch (end) {
+            case END_GAME_OVER: return "game over";
+            case END_BUDGET: return "action budget used up";
+            case END_CYCLE: return "cycle detected";
+            case END_TIMEOUT: return "timed out";
+            default: return "unknown";
+        }
+    }
+    
+    // Private methods
+    private void clearStates() {
+        if (_count > 0) {
+            Arrays.fill(_keys, 0);
+            Arrays.fill(_visits, 0);
+            _count = 0;
+        }
+    }
+    
+    /**
+     * Count a visit of a state
+     * @return number of visits including this one
+     */
+    private int visit(long header, long tiles) {
+        int mask = _visits.length - 1;
+        int i = QTable.hash(header, tiles) & mask;
+        
+        // Headers are never zero (QState.KEY_USED), so a zero header marks a free slot
+        while (_keys[2*i] != 0) {
+            if (_keys[2*i] == header && _keys[2*i + 1] == tiles) {
+                return ++_visits[i];
+            }
+            i = (i + 1) & mask;
+        }
+        
+        _keys[2*i] = header;
+        _keys[2*i + 1] = tiles;
+        _visits[i] = 1;
+        _count++;
+        if (_count * 2 > _visits.length) {
+            this.grow();
+        }
+        return 1;
+    }
+    
+    private void grow() {
+        long[] oldKeys = _keys;
+        int[] oldVisits = _visits;
+        _keys = new long[oldKeys.length * 2];
+        _visits = new int[oldVisits.length * 2];
+        int mask = _visits.length - 1;
+        
+        for (int j = 0; j < oldVisits.length; j++) {
+            if (oldKeys[2*j] != 0) {
+                int i = QTable.hash(oldKeys[2*j], oldKeys[2*j + 1]) & mask;
+                while (_keys[2*i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                _keys[2*i] = oldKeys[2*j];
+                _keys[2*i + 1] = oldKeys[2*j + 1];
+                _visits[i] = oldVisits[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,580 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Trains a QTable with e-greedy Q-learning episodes over a set of maps.
+ *
+ * Each map gets trainEpisodes episodes, with epsilon decaying linearly
+ * from epsStart to epsMin by 1.0 / (trainEpisodes * epsLDecay) per episode.
+ *
+ * With one thread the maps are trained one after another, exactly like the
+ * GUI always did. With more threads each map's episodes are split into tasks
+ * of EPISODES_PER_TASK episodes which run on a thread pool against a
+ * ConcurrentQTable. Deterministic mode runs the same tasks in order on the
+ * calling thread, each with its own seeded random generator (FastRandom), so
+ * results are reproducible for a given seed.
+ *
+ * With convergence checks enabled (setConvergence) the episodes of a map are
+ * looked at in windows of convergenceWindow episodes; when both the largest
+ * and the mean absolute Q-value update of a window fall below their
+ * thresholds, the map counts as converged and training moves on to the next
+ * map. The episodes not needed are reported as saved.
+ *
+ * Maps come from a MapCorpus and are created only when their turn comes,
+ * at most checkpointMaps of them at a time, so a corpus can be far larger
+ * than what fits in memory as WorldMap objects. With rounds > 1 the corpus
+ * is visited round-robin: each round gives every map the next
+ * trainEpisodes / rounds of its episodes, so no map's training is finished
+ * before every map has been seen. With shuffling enabled every round visits
+ * the maps in a different seeded random order. A checkpoint listener is
+ * called after every checkpointMaps map visits, e.g. to save the table.
+ *
+ * With experience replay enabled (setReplay) every training agent keeps its
+ * own ReplayBuffer of recent transitions and updates a batch of them again
+ * every few steps; the buffer of the sequential agent lives for the whole
+ * run, those of parallel and deterministic tasks for one task.
+ *
+ * With planning enabled (setPlanning) every training agent also learns a
+ * model of the steps it takes and runs planSteps prioritized sweeping
+ * updates on it after every real step (see DynaPlanner), living as long as
+ * a replay buffer would.
+ *
+ * Progress can be polled from other threads while train() runs, and a run
+ * can be stopped early with cancel().
+ *
+ * @author Azeroc
+ */
+public class Trainer {
+    public static final int EPISODES_PER_TASK = 1000;
+    public static final int DEFAULT_CHECKPOINT_MAPS = 256;
+
+    private final double alpha;
+    private final double gamma;
+    private final double epsStart;
+    private final double epsMin;
+    private final double epsLDecay;
+    private int threads = 1;
+    private boolean deterministic = false;
+    private long seed = 0;
+    private int rounds = 1;
+    private boolean shuffle = false;
+    private long shuffleSeed = 0;
+    private int checkpointMaps = DEFAULT_CHECKPOINT_MAPS;
+    private CheckpointListener checkpointListener = null;
+    
+    // Progress of the current run, readable from other threads
+    private final AtomicLong episodesDone = new AtomicLong();
+    private final AtomicLong episodesTotal = new AtomicLong();
+    private final AtomicLong episodesSaved = new AtomicLong();
+    private volatile boolean cancelled = false;
+    private volatile QTable activeTable = null;
+    private TrainingMetrics metrics = null;
+    
+    // Convergence checks, off while convergenceWindow is 0
+    private int convergenceWindow = 0;
+    private double convergenceMax = 0;
+    private double convergenceMean = 0;
+    
+    // Experience replay, off while replayCapacity is 0
+    private int replayCapacity = 0;
+    private int replayBatch = 0;
+    private int replayEvery = 1;
+    
+    // Model-based planning, off while planSteps is 0
+    private int planSteps = 0;
+    private double planThreshold = 0;
+
+    /**
+     * @param alpha Learning rate
+     * @param gamma Discount factor
+     * @param epsStart Epsilon at the first episode of a map
+     * @param epsMin Lowest epsilon
+     * @param epsLDecay Linear epsilon decay (see class description)
+     */
+    public Trainer(double alpha, double gamma, double epsStart, double epsMin, double epsLDecay) {
+        this.alpha = alpha;
+        this.gamma = gamma;
+        this.epsStart = epsStart;
+        this.epsMin = epsMin;
+        this.epsLDecay = epsLDecay;
+    }
+
+    /**
+     * Set number of worker threads (1 trains on the calling thread)
+     * @param threads thread count
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Enable reproducible training with per-task random generators derived from seed
+     * @param deterministic true to run tasks in order on the calling thread
+     * @param seed base seed
+     */
+    public void setDeterministic(boolean deterministic, long seed) {
+        this.deterministic = deterministic;
+        this.seed = seed;
+    }
+
+    /**
+     * Set number of round-robin passes over the maps (see class description)
+     * @param rounds round count
+     */
+    public void setRounds(int rounds) {
+        this.rounds = Math.max(1, rounds);
+    }
+
+    /**
+     * Enable visiting the maps in a random order, different in every round
+     * @param shuffle true to shuffle
+     * @param seed seed of the first round's order
+     */
+    public void setShuffle(boolean shuffle, long seed) {
+        this.shuffle = shuffle;
+        this.shuffleSeed = seed;
+    }
+
+    /**
+     * Call listener after every maps map visits and at the end of a run
+     * @param maps map visits between checkpoints, also the most maps held in memory at a time
+     * @param listener CheckpointListener object, or null for none
+     */
+    public void setCheckpoint(int maps, CheckpointListener listener) {
+        this.checkpointMaps = Math.max(1, maps);
+        this.checkpointListener = listener;
+    }
+
+    /**
+     * Enable moving on from a map once its Q-values stop changing (see class description)
+     * @param window episodes per window, 0 disables the checks
+     * @param maxThreshold largest absolute Q-value update allowed in a converged window
+     * @param meanThreshold mean absolute Q-value update allowed in a converged window
+     */
+    public void setConvergence(int window, double maxThreshold, double meanThreshold) {
+        this.convergenceWindow = Math.max(0, window);
+        this.convergenceMax = maxThreshold;
+        this.convergenceMean = meanThreshold;
+    }
+
+    /**
+     * Enable experience replay (see class description)
+     * @param capacity transitions kept per agent, 0 disables replay
+     * @param batchSize transitions per replay batch
+     * @param every environment steps between replay batches
+     */
+    public void setReplay(int capacity, int batchSize, int every) {
+        this.replayCapacity = Math.max(0, capacity);
+        this.replayBatch = batchSize;
+        this.replayEvery = Math.max(1, every);
+    }
+
+    /**
+     * Enable planning with a learned model (see class description)
+     * @param steps planning updates after every real step, 0 disables planning
+     * @param threshold smallest Bellman error worth a planning update
+     */
+    public void setPlanning(int steps, double threshold) {
+        this.planSteps = Math.max(0, steps);
+        this.planThreshold = threshold;
+    }
+
+    /**
+     * Record episodes of the following runs in metrics
+     * @param metrics TrainingMetrics object, or null to stop recording
+     */
+    public void setMetrics(TrainingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Stop the current run after the episodes in progress
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * Get number of episodes trained so far in the current run
+     * @return episode count
+     */
+    public long getEpisodesDone() {
+        return episodesDone.get();
+    }
+    
+    /**
+     * Get number of episodes the current run trains in total
+     * @return episode count
+     */
+    public long getEpisodesTotal() {
+        return episodesTotal.get();
+    }
+    
+    /**
+     * Get number of episodes skipped in the current run because maps converged
+     * @return episode count
+     */
+    public long getEpisodesSaved() {
+        return episodesSaved.get();
+    }
+    
+    /**
+     * Get QState count of the table being trained
+     * @return QState count, or 0 if no run has started
+     */
+    public int getQStateCount() {
+        QTable qt = activeTable;
+        return (qt != null) ? qt.getQStateCount() : 0;
+    }
+    
+    /**
+     * Train table on all maps
+     * @param qt QTable to train (copied to a ConcurrentQTable for the run if it is not one already)
+     * @param maps maps to train on
+     * @param trainEpisodes episodes per map
+     */
+    public void train(QTable qt, List<WorldMap> maps, int trainEpisodes) {
+        train(qt, MapCorpus.of(maps), trainEpisodes);
+    }
+
+    /**
+     * Train table on all maps of a corpus
+     * @param qt QTable to train (copied to a ConcurrentQTable for the run if it is not one already)
+     * @param corpus maps to train on
+     * @param trainEpisodes episodes per map, over all rounds
+     * @throws IllegalArgumentException if the table is read-only
+     */
+    public void train(QTable qt, MapCorpus corpus, int trainEpisodes) {
+        if (qt.isReadOnly()) {
+            throw new IllegalArgumentException("Can't train a read-only QTable");
+        }
+        double epsDecayStep = 1.0 / (trainEpisodes * epsLDecay);
+        System.out.println("=== TRAINING STARTED ===");
+        System.out.printf("trainEpisodes = %d\n", trainEpisodes);
+        System.out.printf("alpha         = %f\n", alpha);
+        System.out.printf("gamma         = %f\n", gamma);
+        System.out.printf("epsStart      = %f\n", epsStart);
+        System.out.printf("epsMin        = %f\n", epsMin);
+        System.out.printf("epsLDecay     = %f\n", epsLDecay);
+        System.out.printf("epsDecayStep  = %f\n", epsDecayStep);
+        System.out.printf("maps          = %d\n", corpus.size());
+        System.out.printf("rounds        = %d\n", rounds);
+        episodesDone.set(0);
+        episodesTotal.set((long)trainEpisodes * corpus.size());
+        episodesSaved.set(0);
+        cancelled = false;
+        setActiveTable(qt);
+
+        boolean sequential = threads == 1 && !deterministic;
+        QTable trainTable = qt;
+        if (threads > 1 && !deterministic && !(qt instanceof ConcurrentQTable)) {
+            // Train on a thread-safe copy and write the results back at every checkpoint
+            trainTable = new ConcurrentQTable(qt.getStorage());
+            qt.copyTo(trainTable);
+            setActiveTable(trainTable);
+        }
+
+        MapConvergence[] convergences = (convergenceWindow > 0) ? new MapConvergence[corpus.size()] : null;
+        ReplayBuffer replay = (sequential && replayCapacity > 0) ? new ReplayBuffer(replayCapacity) : null;
+        DynaPlanner planner = (sequential && planSteps > 0) ? new DynaPlanner(trainTable, planThreshold) : null;
+        long visits = (long)corpus.size() * rounds;
+        long visited = 0;
+        long taskCount = 0;
+        for (int round = 0; round < rounds && !cancelled; round++) {
+            int first = (int)((long)trainEpisodes * round / rounds);
+            int last = (int)((long)trainEpisodes * (round + 1) / rounds);
+            int[] order = corpus.order(shuffle ? new Random(shuffleSeed + round) : null);
+
+            for (int from = 0; from < order.length && !cancelled; from += checkpointMaps) {
+                int to = Math.min(from + checkpointMaps, order.length);
+                if (sequential) {
+                    trainSequential(trainTable, corpus, order, from, to, first, last, trainEpisodes, epsDecayStep, convergences, replay, planner);
+                } else {
+                    taskCount = trainTasks(trainTable, corpus, order, from, to, first, last, trainEpisodes, epsDecayStep, convergences, taskCount);
+                }
+                visited += to - from;
+
+                if (checkpointListener != null && visited < visits) {
+                    if (trainTable != qt) {
+                        trainTable.copyTo(qt);
+                    }
+                    checkpointListener.checkpoint(visited, visits);
+                }
+            }
+        }
+
+        if (trainTable != qt) {
+            trainTable.copyTo(qt);
+            setActiveTable(qt);
+        }
+        if (!sequential) {
+            System.out.printf("> ... done training through %d episodes on %d maps\n", trainEpisodes, corpus.size());
+        }
+        printSaved();
+        if (checkpointListener != null) {
+            checkpointListener.checkpoint(visited, visits);
+        }
+    }
+
+    /**
+     * Called by train() at checkpoints, on the training thread
+     */
+    public interface CheckpointListener {
+        /**
+         * @param visited map visits done so far
+         * @param visits map visits of the whole run (maps * rounds)
+         */
+        void checkpoint(long visited, long visits);
+    }
+
+    // Private methods
+    private void setActiveTable(QTable qt) {
+        activeTable = qt;
+        if (metrics != null) {
+            metrics.setTable(qt);
+        }
+    }
+
+    private MapConvergence getConvergence(MapConvergence[] convergences, int map, int trainEpisodes) {
+        if (convergences == null) {
+            return null;
+        }
+        if (convergences[map] == null) {
+            convergences[map] = new MapConvergence(trainEpisodes);
+        }
+        return convergences[map];
+    }
+
+    private long trainTasks(QTable qt, MapCorpus corpus, int[] order, int from, int to, int first, int last,
+            int trainEpisodes, double epsDecayStep, MapConvergence[] convergences, long taskCount) {
+        // Split every map's episodes [first, last) into tasks
+        List<TrainTask> tasks = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            int map = order[i];
+            MapConvergence convergence = getConvergence(convergences, map, trainEpisodes);
+            if (convergence != null && convergence.isConverged()) {
+                continue;
+            }
+            WorldMap worldMap = corpus.getMap(map);
+            for (int taskFirst = first; taskFirst < last; taskFirst += EPISODES_PER_TASK) {
+                int taskLast = Math.min(taskFirst + EPISODES_PER_TASK, last);
+                Random rand = new FastRandom(seed + taskCount + tasks.size());
+                tasks.add(new TrainTask(qt, worldMap, taskFirst, taskLast, epsDecayStep, rand, convergence));
+            }
+        }
+
+        if (deterministic) {
+            System.out.printf("> Started deterministic training on %d maps (%d tasks, seed %d) ...\n", to - from, tasks.size(), seed);
+            for (TrainTask task : tasks) {
+                task.run();
+            }
+        } else {
+            System.out.printf("> Started training on %d maps with %d threads (%d tasks) ...\n", to - from, threads, tasks.size());
+            runParallel(tasks);
+        }
+        
+        for (int i = from; i < to; i++) {
+            MapConvergence convergence = getConvergence(convergences, order[i], trainEpisodes);
+            if (convergence != null && convergence.isConverged() && !convergence.reported) {
+                convergence.reported = true;
+                episodesSaved.addAndGet(trainEpisodes - convergence.getTrained());
+                System.out.printf("> map %d/%d converged after %d episodes\n", order[i]+1, corpus.size(), convergence.getTrained());
+            }
+        }
+        return taskCount + tasks.size();
+    }
+
+    private void trainSequential(QTable qt, MapCorpus corpus, int[] order, int from, int to, int first, int last,
+            int trainEpisodes, double epsDecayStep, MapConvergence[] convergences, ReplayBuffer replay, DynaPlanner planner) {
+        MyAgent trainAgent = new MyAgent(null, qt, new FastRandom());
+        trainAgent.setMetrics(metrics);
+        trainAgent.setTrackUpdates(convergenceWindow > 0);
+        if (replay != null) {
+            trainAgent.setReplay(replay, replayBatch, replayEvery);
+        }
+        if (planner != null) {
+            trainAgent.setPlanner(planner, planSteps);
+        }
+
+        for (int i = from; i < to && !cancelled; i++) {
+            int mapIndex = order[i];
+            MapConvergence convergence = getConvergence(convergences, mapIndex, trainEpisodes);
+            if (convergence != null && convergence.isConverged()) {
+                continue;
+            }
+            System.out.printf("> Started training on map %d/%d ...\n", mapIndex+1, corpus.size());
+            WorldMap map = corpus.getMap(mapIndex);
+            double eps = epsStart - first * epsDecayStep;
+            eps = (eps < epsMin) ? epsMin : eps;
+            int j;
+
+            for (j = first; j < last && !cancelled; j++) {
+                eps = eps - epsDecayStep;
+                eps = (eps < epsMin) ? epsMin : eps;
+                trainAgent.trainEpisode(alpha, gamma, eps, map);
+                episodesDone.incrementAndGet();
+                
+                if (convergence != null && convergence.record(trainAgent)) {
+                    j++;
+                    convergence.reported = true;
+                    episodesSaved.addAndGet(trainEpisodes - j);
+                    System.out.printf("> map %d/%d converged after %d episodes\n", mapIndex+1, corpus.size(), j);
+                    break;
+                }
+            }
+            System.out.printf("> ... done training through %d episodes on map %d/%d (epsilon after training: %f)\n", j, mapIndex+1, corpus.size(), eps);
+        }
+    }
+
+    private void printSaved() {
+        if (convergenceWindow > 0) {
+            System.out.printf("> %d of %d episodes saved by convergence checks\n",
+                    episodesSaved.get(), episodesTotal.get() + episodesSaved.get());
+        }
+    }
+
+    private void runParallel(List<TrainTask> tasks) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (TrainTask task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Training task failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Episodes [first, last) of one map, with the epsilon the sequential schedule has at those episodes
+     * Every task runs its own agent, random generator, ReplayBuffer and DynaPlanner, none of which
+     * are thread-safe; only the table is shared between workers.
+     */
+    private class TrainTask implements Runnable {
+        private final QTable qt;
+        private final WorldMap map;
+        private final int first;
+        private final int last;
+        private final double epsDecayStep;
+        private final Random rand;
+        private final MapConvergence convergence;
+
+        TrainTask(QTable qt, WorldMap map, int first, int last, double epsDecayStep, Random rand, MapConvergence convergence) {
+            this.qt = qt;
+            this.map = map;
+            this.first = first;
+            this.last = last;
+            this.epsDecayStep = epsDecayStep;
+            this.rand = rand;
+            this.convergence = convergence;
+        }
+
+        @Override
+        public void run() {
+            MyAgent trainAgent = new MyAgent(null, qt, rand);
+            trainAgent.setMetrics(metrics);
+            trainAgent.setTrackUpdates(convergence != null);
+            if (replayCapacity > 0) {
+                trainAgent.setReplay(new ReplayBuffer(replayCapacity), replayBatch, replayEvery);
+            }
+            if (planSteps > 0) {
+                trainAgent.setPlanner(new DynaPlanner(qt, planThreshold), planSteps);
+            }
+
+            for (int j = first; j < last && !cancelled; j++) {
+                if (convergence != null && convergence.isConverged()) {
+                    break;
+                }
+                double eps = epsStart - (j + 1) * epsDecayStep;
+                eps = (eps < epsMin) ? epsMin : eps;
+                trainAgent.trainEpisode(alpha, gamma, eps, map);
+                episodesDone.incrementAndGet();
+                if (convergence != null) {
+                    convergence.record(trainAgent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Convergence state of one map, shared by the tasks of the map
+     */
+    private class MapConvergence {
+        private final int trainEpisodes;
+        private int trained;
+        private int windowEpisodes;
+        private long windowSteps;
+        private double windowSum;
+        private double windowMax;
+        private volatile boolean converged;
+        private boolean reported; // Saved episodes counted (training thread only)
+
+        MapConvergence(int trainEpisodes) {
+            this.trainEpisodes = trainEpisodes;
+        }
+
+        boolean isConverged() {
+            return converged;
+        }
+
+        synchronized int getTrained() {
+            return trained;
+        }
+
+        /**
+         * Add the agent's last episode to the current window
+         * @return true if the map converged with this episode
+         */
+        synchronized boolean record(MyAgent agent) {
+            trained++;
+            if (converged) {
+                // Episode that was already running when the map converged
+                episodesTotal.incrementAndGet();
+                return false;
+            }
+
+            windowEpisodes++;
+            windowSteps += agent.getLastEpisodeSteps();
+            windowSum += agent.getLastEpisodeAbsDelta();
+            windowMax = Math.max(windowMax, agent.getLastEpisodeMaxAbsDelta());
+            if (windowEpisodes < convergenceWindow) {
+                return false;
+            }
+
+            double windowMean = (windowSteps > 0) ? windowSum / windowSteps : 0;
+            converged = windowMax < convergenceMax && windowMean < convergenceMean;
+            windowEpisodes = 0;
+            windowSteps = 0;
+            windowSum = 0;
+            windowMax = 0;
+            if (converged) {
+                episodesTotal.addAndGet(-(trainEpisodes - trained));
+            }
+            return converged;
+        }
+    }
+}
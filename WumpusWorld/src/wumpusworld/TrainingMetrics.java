@@ -0,0 +1,201 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.Locale;
+
+/**
+ * Training metrics: throughput, episode lengths and rewards, new-state
+ * discovery and Q-value change (convergence).
+ *
+ * Agents sum up their steps locally and report once per episode with
+ * recordEpisode(), so recording costs one short lock per episode.
+ * snapshot() turns the totals into rates over the interval since the
+ * previous snapshot; MetricsReporter takes snapshots periodically.
+ *
+ * @author Azeroc
+ */
+public class TrainingMetrics implements TrainingMetricsMBean {
+    private final long startNanos = System.nanoTime();
+    private volatile QTable table;
+    
+    // Totals, guarded by this
+    private long episodes;
+    private long steps;
+    private double rewardSum;
+    private double absDeltaSum;
+    private double absDeltaMax; // Since the previous snapshot
+    
+    // Previous snapshot, guarded by this
+    private Snapshot last;
+    
+    public TrainingMetrics() {
+        last = new Snapshot(0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+    }
+    
+    /**
+     * Set table whose size is reported (e.g. the table being trained)
+     * @param table QTable object
+     */
+    public void setTable(QTable table) {
+        this.table = table;
+    }
+    
+    /**
+     * Record a finished episode
+     * @param episodeSteps steps taken
+     * @param episodeReward sum of step rewards
+     * @param episodeAbsDelta sum of absolute Q-value changes
+     * @param episodeMaxAbsDelta largest absolute Q-value change
+     */
+    public synchronized void recordEpisode(int episodeSteps, double episodeReward, double episodeAbsDelta, double episodeMaxAbsDelta) {
+        episodes++;
+        steps += episodeSteps;
+        rewardSum += episodeReward;
+        absDeltaSum += episodeAbsDelta;
+        absDeltaMax = Math.max(absDeltaMax, episodeMaxAbsDelta);
+    }
+    
+    /**
+     * Take snapshot of the metrics, rates are over the interval since the previous snapshot
+     * @return Snapshot object
+     */
+    public synchronized Snapshot snapshot() {
+        QTable qt = table;
+        int tableSize = (qt != null) ? qt.getQStateCount() : 0;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double interval = seconds - last.seconds;
+        long dEpisodes = episodes - last.episodes;
+        long dSteps = steps - last.steps;
+        
+        Snapshot s = new Snapshot(seconds, episodes, steps,
+                (interval > 0) ? dEpisodes / interval : 0,
+                (interval > 0) ? dSteps / interval : 0,
+                (dEpisodes > 0) ? (double)dSteps / dEpisodes : 0,
+                (dEpisodes > 0) ? (rewardSum - last.rewardSum) / dEpisodes : 0,
+                (interval > 0) ? (tableSize - last.tableSize) / interval : 0,
+                (dSteps > 0) ? (absDeltaSum - last.absDeltaSum) / dSteps : 0,
+                absDeltaMax, tableSize, rewardSum, absDeltaSum);
+        last = s;
+        absDeltaMax = 0;
+        return s;
+    }
+    
+    /**
+     * Get the latest snapshot without taking a new one
+     * @return Snapshot object
+     */
+    public synchronized Snapshot getLastSnapshot() {
+        return last;
+    }
+    
+    // TrainingMetricsMBean
+    @Override
+    public long getEpisodes() {
+        return getLastSnapshot().episodes;
+    }
+    
+    @Override
+    public long getSteps() {
+        return getLastSnapshot().steps;
+    }
+    
+    @Override
+    public double getEpisodesPerSecond() {
+        return getLastSnapshot().episodesPerSecond;
+    }
+    
+    @Override
+    public double getStepsPerSecond() {
+        return getLastSnapshot().stepsPerSecond;
+    }
+    
+    @Override
+    public double getMeanEpisodeLength() {
+        return getLastSnapshot().meanEpisodeLength;
+    }
+    
+    @Override
+    public double getMeanEpisodeReward() {
+        return getLastSnapshot().meanEpisodeReward;
+    }
+    
+    @Override
+    public double getNewStatesPerSecond() {
+        return getLastSnapshot().newStatesPerSecond;
+    }
+    
+    @Override
+    public double getMeanAbsQDelta() {
+        return getLastSnapshot().meanAbsQDelta;
+    }
+    
+    @Override
+    public double getMaxAbsQDelta() {
+        return getLastSnapshot().maxAbsQDelta;
+    }
+    
+    @Override
+    public int getTableSize() {
+        return getLastSnapshot().tableSize;
+    }
+    
+    /**
+     * Metrics at one point in time, rates over the interval since the previous snapshot
+     */
+    public static class Snapshot {
+        public static final String CSV_HEADER = "seconds,episodes,steps,episodes_per_sec,steps_per_sec,"
+                + "mean_episode_length,mean_episode_reward,new_states_per_sec,mean_abs_q_delta,max_abs_q_delta,table_size";
+        
+        public final double seconds;
+        public final long episodes;
+        public final long steps;
+        public final double episodesPerSecond;
+        public final double stepsPerSecond;
+        public final double meanEpisodeLength;
+        public final double meanEpisodeReward;
+        public final double newStatesPerSecond;
+        public final double meanAbsQDelta;
+        public final double maxAbsQDelta;
+        public final int tableSize;
+        
+        // Running totals the next snapshot's interval values are computed from
+        private final double rewardSum;
+        private final double absDeltaSum;
+        
+        Snapshot(double seconds, long episodes, long steps, double episodesPerSecond, double stepsPerSecond,
+                double meanEpisodeLength, double meanEpisodeReward, double newStatesPerSecond,
+                double meanAbsQDelta, double maxAbsQDelta, int tableSize, double rewardSum, double absDeltaSum) {
+            this.seconds = seconds;
+            this.episodes = episodes;
+            this.steps = steps;
+            this.episodesPerSecond = episodesPerSecond;
+            this.stepsPerSecond = stepsPerSecond;
+            this.meanEpisodeLength = meanEpisodeLength;
+            this.meanEpisodeReward = meanEpisodeReward;
+            this.newStatesPerSecond = newStatesPerSecond;
+            this.meanAbsQDelta = meanAbsQDelta;
+            this.maxAbsQDelta = maxAbsQDelta;
+            this.tableSize = tableSize;
+            this.rewardSum = rewardSum;
+            this.absDeltaSum = absDeltaSum;
+        }
+        
+        public String toCsv() {
+            return String.format(Locale.ROOT, "%.3f,%d,%d,%.1f,%.1f,%.2f,%.4f,%.1f,%.6g,%.6g,%d",
+                    seconds, episodes, steps, episodesPerSecond, stepsPerSecond,
+                    meanEpisodeLength, meanEpisodeReward, newStatesPerSecond, meanAbsQDelta, maxAbsQDelta, tableSize);
+        }
+        
+        public String toJson() {
+            return String.format(Locale.ROOT, "{\"seconds\":%.3f,\"episodes\":%d,\"steps\":%d,\"episodes_per_sec\":%.1f,"
+                    + "\"steps_per_sec\":%.1f,\"mean_episode_length\":%.2f,\"mean_episode_reward\":%.4f,"
+                    + "\"new_states_per_sec\":%.1f,\"mean_abs_q_delta\":%.6g,\"max_abs_q_delta\":%.6g,\"table_size\":%d}",
+                    seconds, episodes, steps, episodesPerSecond, stepsPerSecond,
+                    meanEpisodeLength, meanEpisodeReward, newStatesPerSecond, meanAbsQDelta, maxAbsQDelta, tableSize);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+/**
+ * JMX view of TrainingMetrics, values are from the latest snapshot
+ *
+ * @author Azeroc
+ */
+public interface TrainingMetricsMBean {
+    long getEpisodes();
+    long getSteps();
+    double getEpisodesPerSecond();
+    double getStepsPerSecond();
+    double getMeanEpisodeLength();
+    double getMeanEpisodeReward();
+    double getNewStatesPerSecond();
+    double getMeanAbsQDelta();
+    double getMaxAbsQDelta();
+    int getTableSize();
+}
@@ -0,0 +1,436 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the Q-values of a set of maps with value iteration over all
+ * their reachable states, instead of learning them from training episodes.
+ *
+ * For every map, all states reachable from generateWorld() are enumerated
+ * breadth-first by trying each legal QState action on a copy of the world,
+ * with the same rewards the training agent gets (MyAgent.observeAction).
+ * States are told apart by everything that decides what happens next
+ * (position, direction, explored squares, arrow, Wumpus, gold, pit), not
+ * by their Q-table key, which hides the position on the gold or Wumpus.
+ * States where the game is over or no action is legal are terminal: like
+ * in training, their value is the best of their initial Q-values.
+ *
+ * Value iteration then sweeps all states until no value changes by more
+ * than the tolerance. Sweeps are synchronous (Jacobi): every sweep reads
+ * the values of the previous one only, so with more threads the states
+ * are split into chunks of CHUNK_STATES which are swept in parallel.
+ *
+ * The Q-value of a key is the lowest one among the states of a map that
+ * share it (so the policy doesn't count on what the key hides, e.g. how
+ * much is left to explore when standing on the gold), averaged over the
+ * maps the key is reachable in. Actions that are illegal everywhere keep
+ * QState.ILLEGAL_VAL.
+ *
+ * Only a single map is solved exactly. The average over several maps is a
+ * heuristic: a key doesn't tell the maps apart, so the averaged values are
+ * not the optimal ones of any map and their policy can lose or loop.
+ * Worlds are limited to MAX_SQUARES squares (one bit per explored square).
+ *
+ * @author Azeroc
+ */
+public class ValueIterationSolver {
+    public static final int CHUNK_STATES = 4096;
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+    public static final int DEFAULT_MAX_SWEEPS = 10000;
+    public static final int MAX_SQUARES = 64;
+    private static final int A = QState.Q_ARR_SIZE;
+
+    private final double gamma;
+    private double tolerance = DEFAULT_TOLERANCE;
+    private int maxSweeps = DEFAULT_MAX_SWEEPS;
+    private int threads = 1;
+
+    // Statistics of the last solve()
+    private long statesSolved;
+    private long sweepsDone;
+    private int keysWritten;
+
+    /**
+     * @param gamma Discount factor
+     */
+    public ValueIterationSolver(double gamma) {
+        this.gamma = gamma;
+    }
+
+    /**
+     * Set number of worker threads for the sweeps (1 sweeps on the calling thread)
+     * @param threads thread count
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Set when value iteration stops
+     * @param tolerance largest value change of a sweep at which a map counts as solved
+     * @param maxSweeps most sweeps per map
+     */
+    public void setConvergence(double tolerance, int maxSweeps) {
+        this.tolerance = tolerance;
+        this.maxSweeps = Math.max(1, maxSweeps);
+    }
+
+    /**
+     * Solve every map of a corpus and store the Q-values of their keys in a table
+     * Keys already in the table are replaced, other keys are left as they are.
+     * @param qt QTable to store the Q-values in
+     * @param corpus maps to solve
+     * @return number of keys stored
+     * @throws IllegalArgumentException if the table is read-only or a map
+     * has more than MAX_SQUARES squares
+     */
+    public int solve(QTable qt, MapCorpus corpus) {
+        if (qt.isReadOnly()) {
+            throw new IllegalArgumentException("Can't store solved Q-values in a read-only QTable");
+        }
+        statesSolved = 0;
+        sweepsDone = 0;
+
+        // Per key (slot of keys): sum and count of the per-map Q-values
+        QTable keys = new QTable();
+        double[] sums = new double[1024 * A];
+        int[] counts = new int[1024 * A];
+        double[] mapMin = new double[1024 * A];
+        int[] mapStamp = new int[1024];
+        Arrays.fill(mapStamp, -1);
+        int[] touched = new int[1024];
+
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            for (int m = 0; m < corpus.size(); m++) {
+                StateSpace space = enumerate(corpus.getMap(m));
+                double[] values = iterate(space, executor);
+                statesSolved += space.size;
+
+                int touchedCount = 0;
+                double[] row = new double[A];
+                for (int s = 0; s < space.size; s++) {
+                    int slot = keys.getSlot(space.headers[s], space.tiles[s]);
+                    if (slot == -1) {
+                        slot = keys.insertState(space.headers[s], space.tiles[s], 0);
+                        if (slot == mapStamp.length) {
+                            int size = slot * 2;
+                            sums = Arrays.copyOf(sums, size * A);
+                            counts = Arrays.copyOf(counts, size * A);
+                            mapMin = Arrays.copyOf(mapMin, size * A);
+                            mapStamp = Arrays.copyOf(mapStamp, size);
+                            Arrays.fill(mapStamp, slot, size, -1);
+                            touched = Arrays.copyOf(touched, size);
+                        }
+                    }
+
+                    qValues(space, values, s, row);
+                    if (mapStamp[slot] != m) {
+                        mapStamp[slot] = m;
+                        touched[touchedCount++] = slot;
+                        System.arraycopy(row, 0, mapMin, slot * A, A);
+                    } else {
+                        for (int a = 0; a < A; a++) {
+                            mapMin[slot * A + a] = Math.min(mapMin[slot * A + a], row[a]);
+                        }
+                    }
+                }
+
+                // Add the map's Q-values to the per-key averages, illegal actions don't count
+                for (int i = 0; i < touchedCount; i++) {
+                    int e = touched[i] * A;
+                    for (int a = 0; a < A; a++) {
+                        if (mapMin[e + a] > QState.ILLEGAL_VAL) {
+                            sums[e + a] += mapMin[e + a];
+                            counts[e + a]++;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        keysWritten = keys.getQStateCount();
+        double[] row = new double[A];
+        for (int slot = 0; slot < keysWritten; slot++) {
+            for (int a = 0; a < A; a++) {
+                int e = slot * A + a;
+                row[a] = (counts[e] > 0) ? sums[e] / counts[e] : QState.ILLEGAL_VAL;
+            }
+            qt.storeQValues(keys.getKeyHeader(slot), keys.getKeyTiles(slot), row);
+        }
+        return keysWritten;
+    }
+
+    /**
+     * Get number of states enumerated by the last solve(), over all maps
+     * @return state count
+     */
+    public long getStatesSolved() {
+        return statesSolved;
+    }
+
+    /**
+     * Get number of sweeps done by the last solve(), over all maps
+     * @return sweep count
+     */
+    public long getSweepsDone() {
+        return sweepsDone;
+    }
+
+    /**
+     * Get number of keys stored by the last solve()
+     * @return key count
+     */
+    public int getKeysWritten() {
+        return keysWritten;
+    }
+
+    // Private methods
+    /**
+     * Find all states reachable on a map, breadth-first
+     */
+    private static StateSpace enumerate(WorldMap map) {
+        World start = map.generateWorld();
+        if (start.getSize() * start.getSize() > MAX_SQUARES) {
+            throw new IllegalArgumentException("Can only solve worlds of up to " + MAX_SQUARES + " squares");
+        }
+
+        StateSpace space = new StateSpace();
+        HashMap<StateId, Integer> ids = new HashMap<>();
+        ArrayDeque<World> queue = new ArrayDeque<>();
+        ids.put(new StateId(start), 0);
+        space.add(start);
+        queue.add(start);
+
+        // States get their index when found, so the queue hands them out in index order
+        for (int s = 0; !queue.isEmpty(); s++) {
+            World w = queue.poll();
+            if (space.terminal[s]) {
+                continue;
+            }
+
+            int legal = space.legal[s];
+            for (int a = 0; a < A; a++) {
+                if ((legal & (1 << a)) == 0) {
+                    continue;
+                }
+                World next = w.cloneWorld();
+                double reward = MyAgent.observeAction(next, a);
+
+                StateId id = new StateId(next);
+                Integer index = ids.get(id);
+                if (index == null) {
+                    index = space.size;
+                    ids.put(id, index);
+                    space.add(next);
+                    queue.add(next);
+                }
+                space.next[s * A + a] = index;
+                space.rewards[s * A + a] = reward;
+            }
+        }
+        return space;
+    }
+
+    /**
+     * Run value iteration on a state space
+     * @return state values
+     */
+    private double[] iterate(final StateSpace space, ExecutorService executor) {
+        double[] values = new double[space.size];
+        double[] nextValues = new double[space.size];
+        for (int s = 0; s < space.size; s++) {
+            values[s] = space.terminal[s] ? space.terminalValue[s] : 0.0;
+        }
+
+        for (int sweep = 0; sweep < maxSweeps; sweep++) {
+            double change;
+            if (executor == null || space.size <= CHUNK_STATES) {
+                change = sweep(space, values, nextValues, 0, space.size);
+            } else {
+                change = sweepParallel(space, values, nextValues, executor);
+            }
+            sweepsDone++;
+
+            double[] tmp = values;
+            values = nextValues;
+            nextValues = tmp;
+            if (change <= tolerance) {
+                break;
+            }
+        }
+        return values;
+    }
+
+    private double sweepParallel(final StateSpace space, final double[] values, final double[] nextValues, ExecutorService executor) {
+        List<Future<Double>> futures = new ArrayList<>();
+        for (int first = 0; first < space.size; first += CHUNK_STATES) {
+            final int from = first;
+            final int to = Math.min(first + CHUNK_STATES, space.size);
+            futures.add(executor.submit(new Callable<Double>() {
+                @Override
+                public Double call() {
+                    return sweep(space, values, nextValues, from, to);
+                }
+            }));
+        }
+
+        double change = 0;
+        try {
+            for (Future<Double> future : futures) {
+                change = Math.max(change, future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Value iteration interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Value iteration task failed", ex.getCause());
+        }
+        return change;
+    }
+
+    /**
+     * Compute the values of states [from, to) from the values of the last sweep
+     * @return largest value change
+     */
+    private double sweep(StateSpace space, double[] values, double[] nextValues, int from, int to) {
+        double change = 0;
+        for (int s = from; s < to; s++) {
+            if (space.terminal[s]) {
+                nextValues[s] = values[s];
+                continue;
+            }
+            double best = Double.NEGATIVE_INFINITY;
+            for (int a = 0; a < A; a++) {
+                int next = space.next[s * A + a];
+                if (next != -1) {
+                    best = Math.max(best, space.rewards[s * A + a] + gamma * values[next]);
+                }
+            }
+            nextValues[s] = best;
+            change = Math.max(change, Math.abs(best - values[s]));
+        }
+        return change;
+    }
+
+    /**
+     * Q-values of a state from the state values
+     */
+    private void qValues(StateSpace space, double[] values, int s, double[] row) {
+        QState.setInitialQValues(row, space.legal[s]);
+        if (space.terminal[s]) {
+            return;
+        }
+        for (int a = 0; a < A; a++) {
+            int next = space.next[s * A + a];
+            if (next != -1) {
+                row[a] = space.rewards[s * A + a] + gamma * values[next];
+            }
+        }
+    }
+
+    /**
+     * Reachable states of one map, with their keys and transitions
+     */
+    private static class StateSpace {
+        private long[] headers = new long[256];
+        private long[] tiles = new long[256];
+        private int[] legal = new int[256];
+        private boolean[] terminal = new boolean[256];
+        private double[] terminalValue = new double[256];
+        private int[] next = new int[256 * A];       // Next state of each action, -1 if illegal
+        private double[] rewards = new double[256 * A];
+        private int size = 0;
+
+        StateSpace() {
+            Arrays.fill(next, -1);
+        }
+
+        void add(World w) {
+            if (size == headers.length) {
+                int capacity = size * 2;
+                headers = Arrays.copyOf(headers, capacity);
+                tiles = Arrays.copyOf(tiles, capacity);
+                legal = Arrays.copyOf(legal, capacity);
+                terminal = Arrays.copyOf(terminal, capacity);
+                terminalValue = Arrays.copyOf(terminalValue, capacity);
+                next = Arrays.copyOf(next, capacity * A);
+                Arrays.fill(next, size * A, capacity * A, -1);
+                rewards = Arrays.copyOf(rewards, capacity * A);
+            }
+
+            headers[size] = QState.packKeyHeader(w);
+            tiles[size] = QState.packKeyTiles(w);
+            legal[size] = QState.getLegalActionMask(w);
+            terminal[size] = w.gameOver() || legal[size] == 0;
+            if (terminal[size]) {
+                // What a training step into this state would see as its future value
+                double[] row = new double[A];
+                QState.setInitialQValues(row, legal[size]);
+                double max = row[0];
+                for (int a = 1; a < A; a++) {
+                    max = Math.max(max, row[a]);
+                }
+                terminalValue[size] = max;
+            }
+            size++;
+        }
+    }
+
+    /**
+     * Everything about a world that can change on a fixed map
+     */
+    private static final class StateId {
+        private final long explored;
+        private final int status;
+
+        StateId(World w) {
+            int size = w.getSize();
+            long bits = 0;
+            for (int y = 1; y <= size; y++) {
+                for (int x = 1; x <= size; x++) {
+                    if (!w.isUnknown(x, y)) {
+                        bits |= 1L << ((y - 1) * size + (x - 1));
+                    }
+                }
+            }
+            this.explored = bits;
+            this.status = w.getPlayerX() | w.getPlayerY() << 8 | w.getDirection() << 16
+                    | (w.hasArrow() ? 1 << 20 : 0) | (w.wumpusAlive() ? 1 << 21 : 0)
+                    | (w.hasGold() ? 1 << 22 : 0) | (w.isInPit() ? 1 << 23 : 0) | (w.gameOver() ? 1 << 24 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof StateId)) {
+                return false;
+            }
+            StateId other = (StateId)o;
+            return explored == other.explored && status == other.status;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = (explored ^ status * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+            return (int)(h ^ (h >>> 32));
+        }
+    }
+}
@@ -1,18 +1,49 @@
 package wumpusworld;
 
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * This class handles an instance of the Wumpus World. It contains the world
  * state, which actions are available, and updates the world when an action
  * has been executed.
  * 
+ * The world is stored as one bitboard per percept layer (pit, wumpus, breeze,
+ * stench, glitter, unknown). Square (x, y) maps to bit index
+ * (x-1) + (y-1)*size, so every query is a mask test and every mutation a
+ * bit operation.
+ * 
+ * The agent's knowledge about each square (may have a pit, may have the
+ * Wumpus, confirmed Wumpus, may be safe) is kept in knowledge layers of the
+ * same form. They are updated for the neighbourhood of a square when it is
+ * visited, and for the whole world when the Wumpus dies or the map is set up,
+ * so knowledge queries are single bit tests.
+ * 
+ * With journaling enabled every doAction() call is recorded in a compact
+ * journal (player state as ints plus the bits the action changed), so
+ * lookahead code can play actions and take them back with undoAction() or
+ * undoTo() instead of copying the world. Undone actions can be replayed with
+ * redoAction() until a new action is done.
+ * 
  * @author Johan Hagelbäck
  */
 public class World 
 {
     private int size;
-    private String[][] w;
+    private long[] pits;
+    private long[] wumpus;
+    private long[] breeze;
+    private long[] stench;
+    private long[] glitter;
+    private long[] unknown;
+    
+    //Knowledge layers, inferred from the percepts of visited squares.
+    //Kept up to date when a square is visited or the Wumpus dies.
+    private long[] maybePit;
+    private long[] maybeWumpus;
+    private long[] confirmedWumpus;
+    private long[] safeConfirmed;
+    private long[] safeUnconfirmed;
     private int pX = 1;
     private int pY = 1;
     private boolean wumpusAlive = true;
@@ -21,6 +52,18 @@ public class World
     private boolean hasGold = false;
     private boolean gameOver = false;   
     private int score = 0;
+    private int events = 0;
+    
+    //Action journal. Entry i is J_STRIDE ints from journal[i*J_STRIDE]
+    //(see J_ constants), the Wumpus and Stench layers from before a
+    //kill are kept in killedLayers.
+    private boolean journaling = false;
+    private int[] journal;
+    private int[] journalActions;
+    private int journalSize = 0;
+    private ArrayList<long[]> killedLayers;
+    private int[] redoActions;
+    private int redoSize = 0;
     
     //Player Directions constants.
     public static final int DIR_UP = 0;
@@ -48,36 +91,107 @@ public class World
     public static final String A_TURN_LEFT = "l";
     public static final String A_TURN_RIGHT = "r";
     
+    //Action codes, used by doAction(int).
+    public static final int ACT_MOVE = 0;
+    public static final int ACT_GRAB = 1;
+    public static final int ACT_CLIMB = 2;
+    public static final int ACT_SHOOT = 3;
+    public static final int ACT_TURN_LEFT = 4;
+    public static final int ACT_TURN_RIGHT = 5;
+    public static final int ACT_INVALID = -1;
+    
+    //Event flags, reported by pollEvents().
+    public static final int EV_NEW_SQUARE = 1;    //Player moved into an unknown square
+    public static final int EV_GOLD = 2;          //Player grabbed the gold
+    public static final int EV_PIT = 4;           //Player fell into a pit
+    public static final int EV_WUMPUS_KILLED = 8; //Arrow killed the Wumpus
+    public static final int EV_EATEN = 16;        //Player moved into the Wumpus square
+    
+    //Journal entry fields.
+    private static final int J_X = 0;
+    private static final int J_Y = 1;
+    private static final int J_DIR = 2;
+    private static final int J_SCORE = 3;
+    private static final int J_STATUS = 4; //Status flags (see S_ constants)
+    private static final int J_EVENTS = 5; //Pending events before the action
+    private static final int J_CHANGES = 6; //Events of the action itself
+    private static final int J_STRIDE = 7;
+    private static final int JOURNAL_CAPACITY = 64;
+    
+    //Status flags of a journal entry.
+    private static final int S_WUMPUS_ALIVE = 1;
+    private static final int S_HAS_ARROW = 2;
+    private static final int S_IN_PIT = 4;
+    private static final int S_HAS_GOLD = 8;
+    private static final int S_GAME_OVER = 16;
+    
+    //Knowledge flags of a square.
+    private static final int K_MAYBE_PIT = 1;
+    private static final int K_MAYBE_WUMPUS = 2;
+    private static final int K_CONFIRMED_WUMPUS = 4;
+    private static final int K_SAFE_CONFIRMED = 8;    //Safe when the Wumpus location is confirmed
+    private static final int K_SAFE_UNCONFIRMED = 16; //Safe when the Wumpus location is not confirmed
+    
     /**
      * Creates a new Wumpus World. The Wumpus World works with
-     * any size 4 or larger, but only size 4 is supported by
-     * the GUI.
+     * any size 4 or larger.
      * 
      * @param size Size of the world.
      */
     public World(int size)
     {
         this.size = size;
-        w = new String[size+1][size+1];
+        int words = (size * size + 63) >>> 6;
+        pits = new long[words];
+        wumpus = new long[words];
+        breeze = new long[words];
+        stench = new long[words];
+        glitter = new long[words];
+        unknown = new long[words];
+        maybePit = new long[words];
+        maybeWumpus = new long[words];
+        confirmedWumpus = new long[words];
+        safeConfirmed = new long[words];
+        safeUnconfirmed = new long[words];
         
-        for (int x = 0; x <= size; x++)
+        for (int i = 0; i < size * size; i++)
         {
-            for (int y = 0; y <= size; y++)
-            {
-                w[x][y] = UNKNOWN;
-            }
+            unknown[i >>> 6] |= 1L << i;
         }
         
         setVisited(1, 1);
+        updateKnowledgeAll();
     }
 
-    public World(String[][] w1,int size, int px, int py, int dirr)
+    /**
+     * Creates a copy of another world, without its journal.
+     * Used by cloneWorld().
+     * 
+     * @param o World to copy
+     */
+    private World(World o)
     {
-        this.size = size;
-        pX=px;
-        pY=py;
-        dir = dirr;
-        this.w=w1;
+        this.size = o.size;
+        pits = o.pits.clone();
+        wumpus = o.wumpus.clone();
+        breeze = o.breeze.clone();
+        stench = o.stench.clone();
+        glitter = o.glitter.clone();
+        unknown = o.unknown.clone();
+        maybePit = o.maybePit.clone();
+        maybeWumpus = o.maybeWumpus.clone();
+        confirmedWumpus = o.confirmedWumpus.clone();
+        safeConfirmed = o.safeConfirmed.clone();
+        safeUnconfirmed = o.safeUnconfirmed.clone();
+        pX = o.pX;
+        pY = o.pY;
+        dir = o.dir;
+        wumpusAlive = o.wumpusAlive;
+        hasArrow = o.hasArrow;
+        isInPit = o.isInPit;
+        hasGold = o.hasGold;
+        gameOver = o.gameOver;
+        score = o.score;
     }
     /**
      * Returns the current score.
@@ -89,6 +203,20 @@ public class World
         return score;
     }
     
+    /**
+     * Returns the events (see Event constants) that happened since
+     * the last call, and clears them. Lets callers see what an action
+     * did without keeping a copy of the world from before it.
+     * 
+     * @return Event flags
+     */
+    public int pollEvents()
+    {
+        int e = events;
+        events = 0;
+        return e;
+    }
+    
     /**
      * Returns the size of this Wumpus World.
      * 
@@ -194,10 +322,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(BREEZE))
-            return true;
-        else
-            return false;
+        return test(breeze, bit(x,y));
     }
     
     /**
@@ -214,10 +339,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(STENCH))
-            return true;
-        else
-            return false;
+        return test(stench, bit(x,y));
     }
     
     /**
@@ -234,10 +356,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(GLITTER))
-            return true;
-        else
-            return false;
+        return test(glitter, bit(x,y));
     }
     
     /**
@@ -254,10 +373,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(PIT))
-            return true;
-        else
-            return false;
+        return test(pits, bit(x,y));
     }
     
     /**
@@ -274,10 +390,7 @@ public class World
         if (!isValidPosition(x,y)) return false;
         if (isUnknown(x,y)) return false;
         
-        if (w[x][y].contains(WUMPUS))
-            return true;
-        else
-            return false;
+        return test(wumpus, bit(x,y));
     }
     
      /**
@@ -323,10 +436,7 @@ public class World
     {
         if (!isValidPosition(x,y)) return false;
         
-        if (w[x][y].contains(UNKNOWN))
-            return true;
-        else
-            return false;  
+        return test(unknown, bit(x,y));
     }
     
     /**
@@ -346,22 +456,44 @@ public class World
         return true;
     }
     
+    /**
+     * Returns the bit index of a square.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return Bit index in the layer bitboards
+     */
+    private int bit(int x, int y)
+    {
+        return (x-1) + (y-1)*size;
+    }
+    
+    /**
+     * Checks if a bit is set in a layer.
+     * 
+     * @param layer Layer bitboard
+     * @param i Bit index
+     * @return True if the bit is set
+     */
+    private static boolean test(long[] layer, int i)
+    {
+        return (layer[i >>> 6] & (1L << i)) != 0;
+    }
+    
     /**
      * Adds a percept to a square.
      * 
      * @param x X position
      * @param y Y position
-     * @param s Percept to add (see Percept constants)
+     * @param layer Layer bitboard of the percept
      */
-    private void append(int x, int y, String s)
+    private void append(int x, int y, long[] layer)
     {
         if (!isValidPosition(x,y))
             return;
         
-        if (!w[x][y].contains(s))
-        {
-            w[x][y] += s;
-        }
+        int i = bit(x,y);
+        layer[i >>> 6] |= 1L << i;
     }
     
     /**
@@ -372,33 +504,25 @@ public class World
      */
     public void addWumpus(int x, int y)
     {
-        if (!w[x][y].contains(WUMPUS))
+        if (!test(wumpus, bit(x,y)))
         {
-            append(x,y,WUMPUS);
-            append(x-1,y,STENCH);
-            append(x+1,y,STENCH);
-            append(x,y-1,STENCH);
-            append(x,y+1,STENCH);
+            append(x,y,wumpus);
+            append(x-1,y,stench);
+            append(x+1,y,stench);
+            append(x,y-1,stench);
+            append(x,y+1,stench);
+            updateKnowledgeAll();
         }
     }
     
+    /**
+     * Creates a copy of the world. The copy has journaling disabled.
+     * 
+     * @return Copy of this world
+     */
     public World cloneWorld()
     {
-        //this.size = size;
-        String[][] w1 = new String[size+1][size+1];
-        int px,py,dirr;
-        px=pX;
-        py=pY;
-        dirr=dir;
-        for (int x = 0; x <= size; x++)
-        {
-            for (int y = 0; y <= size; y++)
-            {
-                w1[x][y]= w[x][y];
-            }
-        }
-        
-        return new World(w1,size,px,py,dirr);
+        return new World(this);
     }
     
     /**
@@ -409,13 +533,14 @@ public class World
      */
     public void addPit(int x, int y)
     {
-        if (!w[x][y].contains(PIT))
+        if (!test(pits, bit(x,y)))
         {
-            append(x,y,PIT);
-            append(x-1,y,BREEZE);
-            append(x+1,y,BREEZE);
-            append(x,y-1,BREEZE);
-            append(x,y+1,BREEZE);
+            append(x,y,pits);
+            append(x-1,y,breeze);
+            append(x+1,y,breeze);
+            append(x,y-1,breeze);
+            append(x,y+1,breeze);
+            updateKnowledgeAll();
         }
     }
     
@@ -427,10 +552,7 @@ public class World
      */
     public void addGold(int x, int y)
     {
-        if (!w[x][y].contains(GLITTER))
-        {
-            append(x,y,GLITTER);
-        }
+        append(x,y,glitter);
     }
     
     /**
@@ -441,10 +563,9 @@ public class World
      */
     private void setVisited(int x, int y)
     {
-        if (w[x][y].contains(UNKNOWN))
-        {
-            w[x][y] = w[x][y].replaceAll(UNKNOWN, "");
-        }
+        int i = bit(x,y);
+        unknown[i >>> 6] &= ~(1L << i);
+        updateKnowledgeAround(x, y);
     }
     
     /**
@@ -455,57 +576,284 @@ public class World
      */
     public boolean doAction(String a)
     {
-        if (gameOver) return false;
+        return doAction(actionCode(a));
+    }
+    
+    /**
+     * Executes an action in the Wumpus World.
+     * 
+     * @param a Action code (see Action code constants)
+     * @return True if the action was successful, false if action failed.
+     */
+    public boolean doAction(int a)
+    {
+        if (!journaling) return apply(a);
         
-        //Each action costs 1 score
-        score -= 1;
+        redoSize = 0;
+        return record(a);
+    }
+    
+    /**
+     * Turns the player towards a direction and moves forward, with the
+     * same score and result as doing the turns and the move one by one.
+     * 
+     * @param direction Direction to move in (see Direction constants)
+     * @return True if the move was successful, false otherwise.
+     */
+    public boolean moveDirection(int direction)
+    {
+        if (gameOver) return false;
         
-        if (a.equals(A_MOVE))
+        int turns = (direction - dir) & 3;
+        if (journaling)
         {
-            if (!isInPit)
+            //Record the turns as separate actions
+            if (turns == 3)
             {
-                if (dir == DIR_LEFT) return move(pX-1,pY);
-                if (dir == DIR_RIGHT) return move(pX+1,pY);
-                if (dir == DIR_UP) return move(pX,pY+1);
-                if (dir == DIR_DOWN) return move(pX,pY-1);
+                doAction(ACT_TURN_LEFT);
+            }
+            else
+            {
+                for (int i = 0; i < turns; i++) doAction(ACT_TURN_RIGHT);
             }
         }
-        if (a.equals(A_TURN_LEFT))
+        else
         {
-            dir--;
-            if (dir < 0) dir = 3;
-            return true;
+            //Each turn costs 1 score, the half turn takes two
+            score -= (turns == 3) ? 1 : turns;
+            dir = direction;
         }
-        if (a.equals(A_TURN_RIGHT))
+        return doAction(ACT_MOVE);
+    }
+    
+    /**
+     * Returns the action code of an action string.
+     * 
+     * @param a Action string (see Action constants)
+     * @return Action code, ACT_INVALID for unknown actions
+     */
+    public static int actionCode(String a)
+    {
+        if (a.equals(A_MOVE)) return ACT_MOVE;
+        if (a.equals(A_GRAB)) return ACT_GRAB;
+        if (a.equals(A_CLIMB)) return ACT_CLIMB;
+        if (a.equals(A_SHOOT)) return ACT_SHOOT;
+        if (a.equals(A_TURN_LEFT)) return ACT_TURN_LEFT;
+        if (a.equals(A_TURN_RIGHT)) return ACT_TURN_RIGHT;
+        return ACT_INVALID;
+    }
+    
+    /**
+     * Enables or disables the action journal. Disabling it
+     * discards the journal.
+     * 
+     * @param on True to record actions
+     */
+    public void setJournaling(boolean on)
+    {
+        journaling = on;
+        journalSize = 0;
+        redoSize = 0;
+        if (on && journal == null)
         {
-            dir++;
-            if (dir > 3) dir = 0;
-            return true;
+            journal = new int[JOURNAL_CAPACITY * J_STRIDE];
+            journalActions = new int[JOURNAL_CAPACITY];
+            redoActions = new int[JOURNAL_CAPACITY];
+            killedLayers = new ArrayList<>();
         }
-        if (a.equals(A_GRAB))
+        if (killedLayers != null) killedLayers.clear();
+    }
+    
+    /**
+     * Returns the number of actions in the journal. Can be
+     * passed to undoTo() to go back to the current state.
+     * 
+     * @return Journal size
+     */
+    public int getJournalSize()
+    {
+        return journalSize;
+    }
+    
+    /**
+     * Takes back the last action in the journal.
+     * 
+     * @return True if an action was undone, false if the journal is empty
+     */
+    public boolean undoAction()
+    {
+        if (journalSize == 0) return false;
+        
+        journalSize--;
+        int j = journalSize * J_STRIDE;
+        int changes = journal[j+J_CHANGES];
+        
+        if ((changes & EV_WUMPUS_KILLED) != 0)
         {
-            if (hasGlitter(pX,pY))
-            {
-                w[pX][pY] = w[pX][pY].replaceAll(GLITTER, "");
-                score += 1000;
-                hasGold = true;
-                gameOver = true;
-                return true;
-            }
+            long[] saved = killedLayers.remove(killedLayers.size() - 1);
+            System.arraycopy(saved, 0, wumpus, 0, wumpus.length);
+            System.arraycopy(saved, wumpus.length, stench, 0, stench.length);
         }
-        if (a.equals(A_SHOOT))
+        if ((changes & EV_GOLD) != 0)
         {
-            if (hasArrow)
-            {
-                score -= 10;
-                hasArrow = false;
-                shoot();
-                return true;
-            }
+            append(pX,pY,glitter);
+        }
+        if ((changes & EV_NEW_SQUARE) != 0)
+        {
+            append(pX,pY,unknown);
+        }
+        
+        int newX = pX;
+        int newY = pY;
+        pX = journal[j+J_X];
+        pY = journal[j+J_Y];
+        dir = journal[j+J_DIR];
+        score = journal[j+J_SCORE];
+        int status = journal[j+J_STATUS];
+        wumpusAlive = (status & S_WUMPUS_ALIVE) != 0;
+        hasArrow = (status & S_HAS_ARROW) != 0;
+        isInPit = (status & S_IN_PIT) != 0;
+        hasGold = (status & S_HAS_GOLD) != 0;
+        gameOver = (status & S_GAME_OVER) != 0;
+        events = journal[j+J_EVENTS];
+        
+        if ((changes & EV_WUMPUS_KILLED) != 0)
+        {
+            updateKnowledgeAll();
+        }
+        else if ((changes & EV_NEW_SQUARE) != 0)
+        {
+            updateKnowledgeAround(newX, newY);
+        }
+        
+        if (redoSize == redoActions.length)
+        {
+            redoActions = Arrays.copyOf(redoActions, redoSize * 2);
         }
-        if (a.equals(A_CLIMB))
+        redoActions[redoSize++] = journalActions[journalSize];
+        return true;
+    }
+    
+    /**
+     * Takes back actions until the journal has the given size.
+     * 
+     * @param size Journal size from getJournalSize()
+     */
+    public void undoTo(int size)
+    {
+        while (journalSize > size && undoAction()) { }
+    }
+    
+    /**
+     * Does the last undone action again.
+     * 
+     * @return True if there was an action to redo
+     */
+    public boolean redoAction()
+    {
+        if (!journaling || redoSize == 0) return false;
+        
+        record(redoActions[--redoSize]);
+        return true;
+    }
+    
+    /**
+     * Executes an action and records it in the journal.
+     * 
+     * @param a Action code (see Action code constants)
+     * @return True if the action was successful, false if action failed.
+     */
+    private boolean record(int a)
+    {
+        if (journalSize == journalActions.length)
         {
-            isInPit = false;
+            journal = Arrays.copyOf(journal, journal.length * 2);
+            journalActions = Arrays.copyOf(journalActions, journalActions.length * 2);
+        }
+        
+        int j = journalSize * J_STRIDE;
+        journal[j+J_X] = pX;
+        journal[j+J_Y] = pY;
+        journal[j+J_DIR] = dir;
+        journal[j+J_SCORE] = score;
+        journal[j+J_STATUS] = (wumpusAlive ? S_WUMPUS_ALIVE : 0) | (hasArrow ? S_HAS_ARROW : 0)
+                | (isInPit ? S_IN_PIT : 0) | (hasGold ? S_HAS_GOLD : 0) | (gameOver ? S_GAME_OVER : 0);
+        journal[j+J_EVENTS] = events;
+        journalActions[journalSize] = a;
+        journalSize++;
+        
+        // The arrow may kill the Wumpus, keep its layers in case it does
+        long[] saved = null;
+        if (wumpusAlive && hasArrow && !gameOver && a == ACT_SHOOT)
+        {
+            saved = new long[wumpus.length + stench.length];
+            System.arraycopy(wumpus, 0, saved, 0, wumpus.length);
+            System.arraycopy(stench, 0, saved, wumpus.length, stench.length);
+        }
+        
+        int pending = events;
+        events = 0;
+        boolean result = apply(a);
+        journal[j+J_CHANGES] = events;
+        if ((events & EV_WUMPUS_KILLED) != 0)
+        {
+            killedLayers.add(saved);
+        }
+        events |= pending;
+        return result;
+    }
+    
+    /**
+     * Executes an action in the Wumpus World.
+     * 
+     * @param a Action code (see Action code constants)
+     * @return True if the action was successful, false if action failed.
+     */
+    private boolean apply(int a)
+    {
+        if (gameOver) return false;
+        
+        //Each action costs 1 score
+        score -= 1;
+        
+        switch (a)
+        {
+            case ACT_MOVE:
+                if (isInPit) return false;
+                if (dir == DIR_LEFT) return move(pX-1,pY);
+                if (dir == DIR_RIGHT) return move(pX+1,pY);
+                if (dir == DIR_UP) return move(pX,pY+1);
+                return move(pX,pY-1);
+            case ACT_TURN_LEFT:
+                dir = (dir + 3) & 3;
+                return true;
+            case ACT_TURN_RIGHT:
+                dir = (dir + 1) & 3;
+                return true;
+            case ACT_GRAB:
+                if (hasGlitter(pX,pY))
+                {
+                    int i = bit(pX,pY);
+                    glitter[i >>> 6] &= ~(1L << i);
+                    score += 1000;
+                    hasGold = true;
+                    events |= EV_GOLD;
+                    gameOver = true;
+                    return true;
+                }
+                break;
+            case ACT_SHOOT:
+                if (hasArrow)
+                {
+                    score -= 10;
+                    hasArrow = false;
+                    shoot();
+                    return true;
+                }
+                break;
+            case ACT_CLIMB:
+                isInPit = false;
+                break;
         }
         
         //Action failed
@@ -521,28 +869,28 @@ public class World
         {
             for (int x = pX; x <= size; x++)
             {
-                if (w[x][pY].contains(WUMPUS)) removeWumpus();
+                if (test(wumpus, bit(x,pY))) removeWumpus();
             }
         }
         if (dir == DIR_LEFT)
         {
-            for (int x = pX; x >= 0; x--)
+            for (int x = pX; x >= 1; x--)
             {
-                if (w[x][pY].contains(WUMPUS)) removeWumpus();
+                if (test(wumpus, bit(x,pY))) removeWumpus();
             }
         }
         if (dir == DIR_UP)
         {
             for (int y = pY; y <= size; y++)
             {
-                if (w[pX][y].contains(WUMPUS)) removeWumpus();
+                if (test(wumpus, bit(pX,y))) removeWumpus();
             }
         }
         if (dir == DIR_DOWN)
         {
-            for (int y = pY; y >= 0; y--)
+            for (int y = pY; y >= 1; y--)
             {
-                if (w[pX][y].contains(WUMPUS)) removeWumpus();
+                if (test(wumpus, bit(pX,y))) removeWumpus();
             }
         }
     }
@@ -553,16 +901,15 @@ public class World
      */
     private void removeWumpus()
     {
-        for (int x = 1; x <= 4; x++)
+        for (int i = 0; i < wumpus.length; i++)
         {
-            for (int y = 1; y <= 4; y++)
-            {
-                w[x][y] = w[x][y].replaceAll(WUMPUS, "");
-                w[x][y] = w[x][y].replaceAll(STENCH, "");
-            }
+            wumpus[i] = 0;
+            stench[i] = 0;
         }
         
         wumpusAlive = false;
+        events |= EV_WUMPUS_KILLED;
+        updateKnowledgeAll();
     }
     
     /**
@@ -583,151 +930,258 @@ public class World
         pX = nX;
         pY = nY;
         
+        if (isUnknown(pX,pY)) events |= EV_NEW_SQUARE;
         setVisited(pX, pY);
         
         if(hasWumpus(pX,pY))
         {
             score -= 1000;
             gameOver = true;
+            events |= EV_EATEN;
         }
         if (hasPit(pX,pY))
         {
             score -= 1000;
             isInPit = true;
+            events |= EV_PIT;
         }
         
         return true;    
     }
     
+    /**
+     * Checks if a square may have a pit. A visited square has a pit only if
+     * there is one, an unknown square may have one unless a visited
+     * neighbour has no breeze.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the square may have a pit
+     */
     public boolean isMaybePitTile(int x, int y) {
-        if (this.isVisited(x, y)) {
-            return this.hasPit(x, y);
-        }
-        
-        // Up, right, bottom, left check
-        if (this.isVisited(x, y+1) && !this.hasBreeze(x, y+1)) return false;
-        if (this.isVisited(x+1, y) && !this.hasBreeze(x+1, y)) return false;
-        if (this.isVisited(x, y-1) && !this.hasBreeze(x, y-1)) return false;
-        if (this.isVisited(x-1, y) && !this.hasBreeze(x-1, y)) return false;
+        if (!isValidPosition(x,y)) return (inferTile(x,y) & K_MAYBE_PIT) != 0;
         
-        return true;
+        return test(maybePit, bit(x,y));
     }
     
+    /**
+     * Checks if the Wumpus may be in a square. A visited square has the Wumpus
+     * only if it is there, an unknown square may have it unless a visited
+     * neighbour has no stench.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the Wumpus may be in the square
+     */
     public boolean isMaybeWumpusTile(int x, int y) {
-        if (this.isVisited(x, y)) {
-            return this.hasWumpus(x, y);
-        }
+        if (!isValidPosition(x,y)) return (inferTile(x,y) & K_MAYBE_WUMPUS) != 0;
         
-        // Up, right, bottom, left check
-        if (this.isVisited(x, y+1) && !this.hasStench(x, y+1)) return false;
-        if (this.isVisited(x+1, y) && !this.hasStench(x+1, y)) return false;
-        if (this.isVisited(x, y-1) && !this.hasStench(x, y-1)) return false;
-        if (this.isVisited(x-1, y) && !this.hasStench(x-1, y)) return false;
-        
-        return true;
+        return test(maybeWumpus, bit(x,y));
     }
     
+    /**
+     * Checks if the Wumpus is known to be in a square, i.e. the square is
+     * unknown and at least two visited neighbours, and no visited neighbour
+     * without stench, surround it.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the Wumpus is confirmed in the square
+     */
     public boolean confirmedWumpusTile(int x, int y) {
-        int stenchCounter = 0;
-        
-        if (this.isVisited(x, y)) {
-            return this.hasWumpus(x, y);
-        }
-        
-        // Left stench check
-        if (this.isVisited(x-1, y)) {
-            if (this.hasStench(x-1, y)) {
-                stenchCounter++;
-            } else {
-                return false;
-            }
-        }
+        if (!isValidPosition(x,y)) return (inferTile(x,y) & K_CONFIRMED_WUMPUS) != 0;
         
-        // Top stench check
-        if (this.isVisited(x, y+1)) {
-            if (this.hasStench(x, y+1)) {
-                stenchCounter++;
-            } else {
-                return false;
+        return test(confirmedWumpus, bit(x,y));
+    }
+    
+    /**
+     * Checks if the Wumpus location is confirmed in any square.
+     * 
+     * @return True if the Wumpus location is confirmed
+     */
+    public boolean isWumpusConfirmed() {
+        for (int i = 0; i < confirmedWumpus.length; i++) {
+            if (confirmedWumpus[i] != 0) {
+                return true;
             }
         }
         
-        // Right stench check
-        if (this.isVisited(x+1, y)) {
-            if (this.hasStench(x+1, y)) {
-                stenchCounter++;
-            } else {
-                return false;
-            }
+        return false;
+    }
+    
+    /**
+     * Checks if a square may be safe. A visited square is safe if it has
+     * no pit and no Wumpus, an unknown square if a visited neighbour has
+     * no breeze and the Wumpus can't be there.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @param wumpusConfirmed True to only exclude the confirmed Wumpus square,
+     * false to exclude all squares that may have the Wumpus
+     * @return True if the square may be safe
+     */
+    public boolean isMaybeSafeTile(int x, int y, boolean wumpusConfirmed) {
+        if (!isValidPosition(x,y)) {
+            return (inferTile(x,y) & (wumpusConfirmed ? K_SAFE_CONFIRMED : K_SAFE_UNCONFIRMED)) != 0;
         }
         
-        // Bottom stench check
-        if (this.isVisited(x, y-1)) {
-            if (this.hasStench(x, y-1)) {
-                stenchCounter++;
-            } else {
+        return test(wumpusConfirmed ? safeConfirmed : safeUnconfirmed, bit(x,y));
+    }
+    
+    /**
+     * Checks if there is no unknown square left that may be safe.
+     * 
+     * @return True if all safe squares are explored
+     */
+    public boolean isSafeExplored() {
+        long[] safe = this.isWumpusConfirmed() ? safeConfirmed : safeUnconfirmed;
+        for (int i = 0; i < safe.length; i++) {
+            // Check if there exists unknown tile with no potential pit in it
+            if ((safe[i] & unknown[i]) != 0) {
                 return false;
             }
         }
         
-        // Two stenches needed to confirm
-        return stenchCounter >= 2;
+        return true;
     }
     
-    public boolean isWumpusConfirmed() {
-        for (int y = 1; y <= 4; y++) {
-            for (int x = 1; x <= 4; x++) {
-                if (this.confirmedWumpusTile(x, y)) {
-                    return true;
-                }
-            }
-        }
-        
-        return false;
+    /**
+     * Checks if a square is visited and has no breeze.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the square is visited without breeze
+     */
+    private boolean isVisitedCalm(int x, int y)
+    {
+        if (!isValidPosition(x,y)) return false;
+        int i = bit(x,y);
+        return !test(unknown, i) && !test(breeze, i);
     }
     
-    public boolean isMaybeSafeTile(int x, int y, boolean wumpusConfirmed) {
-        if (this.isVisited(x, y)) {
-            return (!this.hasPit(x, y) && !this.hasWumpus(x, y));
+    /**
+     * Checks if a square is visited and has no stench.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return True if the square is visited without stench
+     */
+    private boolean isVisitedOdorless(int x, int y)
+    {
+        if (!isValidPosition(x,y)) return false;
+        int i = bit(x,y);
+        return !test(unknown, i) && !test(stench, i);
+    }
+    
+    /**
+     * Infers the knowledge flags (see K_ constants) of a square from the
+     * square itself and its four neighbours. Works for invalid positions too,
+     * which count as unknown squares.
+     * 
+     * @param x X position
+     * @param y Y position
+     * @return Knowledge flags
+     */
+    private int inferTile(int x, int y)
+    {
+        if (isVisited(x,y))
+        {
+            int i = bit(x,y);
+            if (test(wumpus, i)) return K_MAYBE_WUMPUS | K_CONFIRMED_WUMPUS | (test(pits, i) ? K_MAYBE_PIT : 0);
+            if (test(pits, i)) return K_MAYBE_PIT;
+            return K_SAFE_CONFIRMED | K_SAFE_UNCONFIRMED;
         }
         
-        // Wumpus checks
-        if (wumpusConfirmed) { // When wumpus location is confirmed
-            if (this.confirmedWumpusTile(x, y)) {
-                return false;
-            }
-        } else if (this.isMaybeWumpusTile(x, y)) { // Otherwise check if there may be wumpus there
-            return false;
+        // Up, right, bottom, left neighbours
+        boolean calm = isVisitedCalm(x,y+1) || isVisitedCalm(x+1,y) || isVisitedCalm(x,y-1) || isVisitedCalm(x-1,y);
+        boolean odorless = isVisitedOdorless(x,y+1) || isVisitedOdorless(x+1,y) || isVisitedOdorless(x,y-1) || isVisitedOdorless(x-1,y);
+        
+        int flags = 0;
+        if (!calm) flags |= K_MAYBE_PIT;
+        if (!odorless)
+        {
+            flags |= K_MAYBE_WUMPUS;
+            
+            // Two stenches needed to confirm
+            int stenches = (isVisited(x,y+1) ? 1 : 0) + (isVisited(x+1,y) ? 1 : 0) + (isVisited(x,y-1) ? 1 : 0) + (isVisited(x-1,y) ? 1 : 0);
+            if (stenches >= 2) flags |= K_CONFIRMED_WUMPUS;
         }
         
         // Can be safely reached (no adjacent pits)
-        boolean canBeReached = false;
-        if (this.isVisited(x, y+1) && !this.hasBreeze(x, y+1)) canBeReached = true;
-        if (this.isVisited(x+1, y) && !this.hasBreeze(x+1, y)) canBeReached = true;
-        if (this.isVisited(x, y-1) && !this.hasBreeze(x, y-1)) canBeReached = true;
-        if (this.isVisited(x-1, y) && !this.hasBreeze(x-1, y)) canBeReached = true;
-        
-        // Up, right, bottom, left pit checks
-        boolean noPit = false;
-        if (this.isVisited(x, y+1) && !this.hasBreeze(x, y+1)) noPit = true;
-        if (this.isVisited(x+1, y) && !this.hasBreeze(x+1, y)) noPit = true;
-        if (this.isVisited(x, y-1) && !this.hasBreeze(x, y-1)) noPit = true;
-        if (this.isVisited(x-1, y) && !this.hasBreeze(x-1, y)) noPit = true;
+        if (calm)
+        {
+            if ((flags & K_CONFIRMED_WUMPUS) == 0) flags |= K_SAFE_CONFIRMED;
+            if ((flags & K_MAYBE_WUMPUS) == 0) flags |= K_SAFE_UNCONFIRMED;
+        }
+        return flags;
+    }
+    
+    /**
+     * Updates the knowledge layers of a square. Does nothing
+     * if the position is invalid.
+     * 
+     * @param x X position
+     * @param y Y position
+     */
+    private void updateKnowledge(int x, int y)
+    {
+        if (!isValidPosition(x,y)) return;
         
-        return canBeReached && noPit;
+        int flags = inferTile(x,y);
+        int i = bit(x,y);
+        assign(maybePit, i, (flags & K_MAYBE_PIT) != 0);
+        assign(maybeWumpus, i, (flags & K_MAYBE_WUMPUS) != 0);
+        assign(confirmedWumpus, i, (flags & K_CONFIRMED_WUMPUS) != 0);
+        assign(safeConfirmed, i, (flags & K_SAFE_CONFIRMED) != 0);
+        assign(safeUnconfirmed, i, (flags & K_SAFE_UNCONFIRMED) != 0);
     }
     
-    public boolean isSafeExplored() {
-        boolean wumpusConfirmed = this.isWumpusConfirmed();
-        for (int y = 1; y <= 4; y++) {
-            for (int x = 1; x <= 4; x++) {
-                // Check if there exists unknown tile with no potential pit in it
-                if (this.isMaybeSafeTile(x, y, wumpusConfirmed) && this.isUnknown(x, y)) {
-                    return false;
-                }
+    /**
+     * Updates the knowledge layers of a square and its neighbours,
+     * the squares whose knowledge depends on it.
+     * 
+     * @param x X position
+     * @param y Y position
+     */
+    private void updateKnowledgeAround(int x, int y)
+    {
+        updateKnowledge(x,y);
+        updateKnowledge(x,y+1);
+        updateKnowledge(x+1,y);
+        updateKnowledge(x,y-1);
+        updateKnowledge(x-1,y);
+    }
+    
+    /**
+     * Updates the knowledge layers of all squares.
+     */
+    private void updateKnowledgeAll()
+    {
+        for (int y = 1; y <= size; y++)
+        {
+            for (int x = 1; x <= size; x++)
+            {
+                updateKnowledge(x,y);
             }
         }
-        
-        return true;
+    }
+    
+    /**
+     * Sets or clears a bit in a layer.
+     * 
+     * @param layer Layer bitboard
+     * @param i Bit index
+     * @param value True to set the bit, false to clear it
+     */
+    private static void assign(long[] layer, int i, boolean value)
+    {
+        if (value)
+        {
+            layer[i >>> 6] |= 1L << i;
+        }
+        else
+        {
+            layer[i >>> 6] &= ~(1L << i);
+        }
     }
 }
@@ -1,22 +1,46 @@
 package wumpusworld;
 
+import java.io.IOException;
 import java.util.Vector;
 /**
  * Starting class for the Wumpus World program. The program
- * has three options: 1) Run a GUI where the Wumpus World can be
+ * has four options: 1) Run a GUI where the Wumpus World can be
  * solved step by step manually or by an agent, or 2) run
  * a simulation with random worlds over a number of games,
- * or 3) run a simulation over the worlds read from a map file.
+ * or 3) run a simulation over the worlds read from a map file,
+ * or 4) train the agent without a GUI and save the Q-table, or
+ * 5) evaluate the trained agent on many maps in parallel, or
+ * 6) compute the Q-table of the training maps with value iteration
+ * (exact for a single map, a heuristic average over several maps).
+ * 
+ * The option can also be given as the first command line argument,
+ * and any config.txt setting as a Key=Value argument, e.g.
+ * "java -jar WumpusWorld.jar train TrainEpisodes=100000 TrainThreads=32".
  * 
  * @author Johan Hagelbäck
  */
 public class WumpusWorld {
+    
+    private int failedGames = 0;
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args)
     {
+        for (int i = 0; i < args.length; i++)
+        {
+            int split = args[i].indexOf('=');
+            if (split > 0)
+            {
+                Config.setOverride(args[i].substring(0, split), args[i].substring(split + 1));
+            }
+            else
+            {
+                Config.setOverride("Option", args[i]);
+            }
+        }
+        
         WumpusWorld ww = new WumpusWorld();
     }
     
@@ -40,6 +64,21 @@ public class WumpusWorld {
         {
             runSimulatorDB();
         }
+        if (option.equalsIgnoreCase("train"))
+        {
+            runTraining();
+            System.exit(0);
+        }
+        if (option.equalsIgnoreCase("eval"))
+        {
+            runEvaluation();
+            System.exit(0);
+        }
+        if (option.equalsIgnoreCase("solve"))
+        {
+            runSolver();
+            System.exit(0);
+        }
     }
     
     /**
@@ -50,6 +89,253 @@ public class WumpusWorld {
         GUI g = new GUI();
     }
     
+    /**
+     * Trains the agent without GUI on the maps from the map file
+     * (TrainMaps=premade, the default), on random maps
+     * (TrainMaps=random) or on a large map file that is read one
+     * map at a time (TrainMaps=file), saving the Q-table after every
+     * TrainCheckpointMaps maps and at the end.
+     */
+    private void runTraining()
+    {
+        if (!checkWritable())
+        {
+            return;
+        }
+        
+        int trainEpisodes = Config.getInt("TrainEpisodes", 100000);
+        double alpha = Config.getDouble("TrainAlpha", 0.01);
+        double gamma = Config.getDouble("TrainGamma", 0.99);
+        double epsStart = Config.getDouble("TrainEpsStart", 0.9);
+        double epsMin = Config.getDouble("TrainEpsMin", 0.1);
+        double epsLDecay = Config.getDouble("TrainEpsDecay", 0.8);
+        int threads = Config.getInt("TrainThreads", Runtime.getRuntime().availableProcessors());
+        int checkpointMaps = Config.getInt("TrainCheckpointMaps", Trainer.DEFAULT_CHECKPOINT_MAPS);
+        String seed = Config.getValue("TrainSeed", "");
+        String shuffleSeed = Config.getValue("TrainShuffleSeed", "");
+        
+        MapCorpus corpus = createTrainCorpus();
+        if (corpus == null)
+        {
+            return;
+        }
+        
+        final Trainer trainer = new Trainer(alpha, gamma, epsStart, epsMin, epsLDecay);
+        trainer.setThreads(threads);
+        trainer.setRounds(Config.getInt("TrainRounds", 1));
+        trainer.setReplay(Config.getInt("TrainReplaySize", 0), Config.getInt("TrainReplayBatch", 32), Config.getInt("TrainReplayEvery", 4));
+        trainer.setPlanning(Config.getInt("TrainPlanSteps", 0), Config.getDouble("TrainPlanThreshold", 0.0001));
+        trainer.setConvergence(Config.getInt("TrainConvergenceWindow", 0),
+                Config.getDouble("TrainConvergenceMax", 0.01), Config.getDouble("TrainConvergenceMean", 0.001));
+        if (!seed.isEmpty())
+        {
+            trainer.setDeterministic(true, Long.parseLong(seed));
+        }
+        if (!shuffleSeed.isEmpty())
+        {
+            trainer.setShuffle(true, Long.parseLong(shuffleSeed));
+        }
+        
+        MetricsReporter reporter = startMetrics(trainer);
+        
+        final QTable qt = QTable.getInstance();
+        if (Config.getValue("TrainResume", "false").equalsIgnoreCase("true"))
+        {
+            qt.loadFromFile();
+            System.out.println();
+        }
+        
+        final long start = System.nanoTime();
+        trainer.setCheckpoint(checkpointMaps, new Trainer.CheckpointListener() {
+            @Override
+            public void checkpoint(long visited, long visits)
+            {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                long episodes = trainer.getEpisodesDone();
+                System.out.printf("> Checkpoint after %d/%d maps: %d episodes in %.1f s (%.0f episodes/sec), %d QStates\n",
+                        visited, visits, episodes, seconds, episodes / seconds, qt.getQStateCount());
+                qt.saveToFile();
+                System.out.println();
+            }
+        });
+        trainer.train(qt, corpus, trainEpisodes);
+        
+        if (reporter != null)
+        {
+            reporter.stop();
+        }
+    }
+    
+    /**
+     * Computes the Q-values of the training maps (TrainMaps, see
+     * runTraining) with value iteration instead of training episodes,
+     * and saves the Q-table.
+     */
+    private void runSolver()
+    {
+        if (!checkWritable())
+        {
+            return;
+        }
+        
+        int size = Config.getMapSize();
+        if (Config.getValue("TrainMaps", "premade").equalsIgnoreCase("random")
+                && size * size > ValueIterationSolver.MAX_SQUARES)
+        {
+            System.out.println("Can't solve " + size + "x" + size + " maps, value iteration is limited to "
+                    + ValueIterationSolver.MAX_SQUARES + " squares (MapSize=8 at most)");
+            return;
+        }
+        
+        MapCorpus corpus = createTrainCorpus();
+        if (corpus == null)
+        {
+            return;
+        }
+        if (corpus.size() > 1)
+        {
+            System.out.println("Note: the Q-values of " + corpus.size() + " maps are averaged, which is a heuristic;"
+                    + " only a single map is solved exactly");
+        }
+        
+        ValueIterationSolver solver = new ValueIterationSolver(Config.getDouble("TrainGamma", 0.99));
+        solver.setThreads(Config.getInt("TrainThreads", Runtime.getRuntime().availableProcessors()));
+        solver.setConvergence(Config.getDouble("SolveTolerance", ValueIterationSolver.DEFAULT_TOLERANCE),
+                Config.getInt("SolveMaxSweeps", ValueIterationSolver.DEFAULT_MAX_SWEEPS));
+        
+        QTable qt = QTable.getInstance();
+        long start = System.nanoTime();
+        try
+        {
+            solver.solve(qt, corpus);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            System.out.println(ex.getMessage());
+            return;
+        }
+        System.out.printf("> Solved %d maps: %d states, %d sweeps in %.1f s, %d QStates\n",
+                corpus.size(), solver.getStatesSolved(), solver.getSweepsDone(),
+                (System.nanoTime() - start) / 1e9, qt.getQStateCount());
+        qt.saveToFile();
+        System.out.println();
+    }
+    
+    /**
+     * Checks that the Q-table can be written, which it can't
+     * when it is mapped with QTableReadOnly=true.
+     * 
+     * @return True if the Q-table is writable
+     */
+    private boolean checkWritable()
+    {
+        if (QTable.getInstance().isReadOnly())
+        {
+            System.out.println("The Q-table is mapped read-only (QTableReadOnly=true), set QTableReadOnly=false to train or solve");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Creates the corpus of training maps given by TrainMaps.
+     * 
+     * @return Map corpus, or null if the map file could not be read
+     */
+    private MapCorpus createTrainCorpus()
+    {
+        String trainMaps = Config.getValue("TrainMaps", "premade");
+        if (trainMaps.equalsIgnoreCase("random"))
+        {
+            return MapCorpus.fromGenerator(0, Config.getInt("TrainRandomMaps", 10), Config.getMapSize());
+        }
+        if (trainMaps.equalsIgnoreCase("file"))
+        {
+            String file = Config.getValue("TrainMapFile", Config.getMapfile());
+            try
+            {
+                return MapCorpus.fromFile(file);
+            }
+            catch (IOException ex)
+            {
+                System.out.println("Could not read maps from " + file + ": " + ex.getMessage());
+                return null;
+            }
+        }
+        MapReader mr = new MapReader();
+        return MapCorpus.of(mr.readMaps());
+    }
+    
+    /**
+     * Starts recording training metrics if MetricsFile or
+     * MetricsJmx=true is set, taking a snapshot every
+     * MetricsIntervalMs milliseconds.
+     * 
+     * @param trainer Trainer to record
+     * @return Started reporter, or null if metrics are off
+     */
+    private MetricsReporter startMetrics(Trainer trainer)
+    {
+        String file = Config.getValue("MetricsFile", "");
+        boolean jmx = Config.getValue("MetricsJmx", "false").equalsIgnoreCase("true");
+        if (file.isEmpty() && !jmx)
+        {
+            return null;
+        }
+        
+        TrainingMetrics metrics = new TrainingMetrics();
+        trainer.setMetrics(metrics);
+        MetricsReporter reporter = new MetricsReporter(metrics, Config.getInt("MetricsIntervalMs", 5000));
+        if (!file.isEmpty())
+        {
+            try
+            {
+                reporter.setFile(file);
+            }
+            catch (IOException ex)
+            {
+                System.out.println("Could not write metrics to " + file + ": " + ex.getMessage());
+            }
+        }
+        if (jmx)
+        {
+            reporter.enableJmx();
+        }
+        reporter.start();
+        return reporter;
+    }
+    
+    /**
+     * Evaluates the trained agent on EvalGames random maps
+     * (EvalMaps=random, the default) or on the maps from the
+     * map file (EvalMaps=premade) using EvalThreads threads,
+     * and prints score and outcome statistics. The Q-table is
+     * only read, QTableStorage=mapped with QTableReadOnly=true
+     * shares a snapshot between evaluation processes.
+     */
+    private void runEvaluation()
+    {
+        loadQTable();
+        
+        Evaluator evaluator = new Evaluator(QTable.getInstance());
+        evaluator.setThreads(Config.getInt("EvalThreads", Runtime.getRuntime().availableProcessors()));
+        evaluator.setMaxActions(Config.getInt("EvalMaxActions", Evaluator.DEFAULT_MAX_ACTIONS));
+        evaluator.setMaxRepeats(Config.getInt("SimMaxRepeats", SimulationRunner.DEFAULT_MAX_REPEATS));
+        evaluator.setTimeoutMs(Config.getInt("SimTimeoutMs", (int)Evaluator.DEFAULT_TIMEOUT_MS));
+        
+        Evaluator.Result result;
+        if (Config.getValue("EvalMaps", "random").equalsIgnoreCase("premade"))
+        {
+            MapReader mr = new MapReader();
+            result = evaluator.evaluate(mr.readMaps());
+        }
+        else
+        {
+            result = evaluator.evaluateRandom(Config.getInt("EvalSeed", 0), Config.getInt("EvalGames", 10000), Config.getMapSize());
+        }
+        result.print();
+    }
+    
     /**
      * Starts the program in simulator mode with
      * maps read from a data file.
@@ -58,6 +344,7 @@ public class WumpusWorld {
     {
         MapReader mr = new MapReader();
         Vector<WorldMap> maps = mr.readMaps();
+        loadQTable();
         
         double totScore = 0;
         for (int i = 0; i < maps.size(); i++)
@@ -67,6 +354,7 @@ public class WumpusWorld {
         }
         totScore = totScore / (double)maps.size();
         System.out.println("Average score: " + totScore);
+        System.out.println("Failed games: " + failedGames);
     }
     
     /**
@@ -75,34 +363,57 @@ public class WumpusWorld {
      */
     private void runSimulator()
     {
+        loadQTable();
+        
         double totScore = 0;
         for (int i = 0; i < 10; i++)
         {
-            WorldMap w = MapGenerator.getRandomMap(i);
+            WorldMap w = MapGenerator.getRandomMap(i, Config.getMapSize());
             totScore += (double)runSimulation(w.generateWorld());
         }
         totScore = totScore / (double)10;
         System.out.println("Average score: " + totScore);
+        System.out.println("Failed games: " + failedGames);
+    }
+    
+    /**
+     * Loads the trained Q-table used by the solver agent.
+     */
+    private void loadQTable()
+    {
+        long start = System.nanoTime();
+        QTable.getInstance().loadFromFile();
+        System.out.printf(" in %.1f ms\n", (System.nanoTime() - start) / 1e6);
     }
     
     /**
      * Runs the solver agent for the specified Wumpus
-     * World.
+     * World. The game is stopped as failed when it uses up
+     * SimMaxActions actions, reaches the same state more than
+     * SimMaxRepeats times again, or runs longer than
+     * SimTimeoutMs milliseconds.
      * 
      * @param w Wumpus World
      * @return Achieved score
      */
     private int runSimulation(World w)
     {
-        int actions = 0;
-        Agent a = new MyAgent(w);
-        while (!w.gameOver())
+        SimulationRunner runner = new SimulationRunner();
+        runner.setMaxActions(Config.getInt("SimMaxActions", SimulationRunner.DEFAULT_MAX_ACTIONS));
+        runner.setMaxRepeats(Config.getInt("SimMaxRepeats", SimulationRunner.DEFAULT_MAX_REPEATS));
+        runner.setTimeoutMs(Config.getInt("SimTimeoutMs", (int)SimulationRunner.DEFAULT_TIMEOUT_MS));
+        
+        int end = runner.run(w, new MyAgent(w));
+        int score = w.getScore();
+        if (end == SimulationRunner.END_GAME_OVER)
         {
-            a.doAction();
-            actions++;
+            System.out.println("Simulation ended after " + runner.getActions() + " actions. Score " + score);
+        }
+        else
+        {
+            failedGames++;
+            System.out.println("Simulation failed after " + runner.getActions() + " actions (" + SimulationRunner.describe(end) + "). Score " + score);
         }
-        int score = w.getScore();
-        System.out.println("Simulation ended after " + actions + " actions. Score " + score);
         return score;
     }
 }
@@ -0,0 +1,351 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package wumpusworld;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the optimized engine and tables behave like the code
+ * they replaced: packed keys against the string keys, World undo/redo
+ * against cloneWorld(), snapshot files, table copies of large worlds,
+ * ConcurrentQTable against QTable, the legal action masks and FastRandom.
+ *
+ * Run with "ant check". Every check throws an AssertionError on the
+ * first difference, so the run fails.
+ *
+ * @author Azeroc
+ */
+public class EquivalenceChecks {
+    private static final int MAPS = 200;
+    private static final int LARGE_MAPS = 50;
+    private static final int LARGE_SIZE = 8;
+    private static final int STEPS = 60;
+
+    public static void main(String[] args) throws IOException {
+        checkPackedKeys();
+        checkUndoRedo();
+        checkSnapshotRoundTrip();
+        checkLargeWorldCopies();
+        checkConcurrentTable();
+        checkLegalMasks();
+        checkFastRandom();
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * Packed keys tell states apart exactly like the string keys for worlds of up to 16 tiles
+     */
+    private static void checkPackedKeys() {
+        HashMap<String, List<Long>> byString = new HashMap<>();
+        HashMap<List<Long>, String> byPacked = new HashMap<>();
+        int states = 0;
+        for (World w : randomWalk(1)) {
+            QState state = QState.parseFromWorldState(w);
+            long header = state.getKeyHeader();
+            long tiles = state.getKeyTiles();
+            check(header == QState.packKeyHeader(w) && tiles == QState.packKeyTiles(w), "packed key of the world");
+            check(QState.fromKey(header, tiles).getKey().equals(state.getKey()), "fromKey round trip");
+
+            List<Long> packed = key(header, tiles);
+            List<Long> oldPacked = byString.put(state.getKey(), packed);
+            String oldString = byPacked.put(packed, state.getKey());
+            check(oldPacked == null || oldPacked.equals(packed), "same string key, different packed key");
+            check(oldString == null || oldString.equals(state.getKey()), "same packed key, different string key");
+            states++;
+        }
+        System.out.println("packed keys ok: " + states + " states, " + byString.size() + " keys");
+    }
+
+    /**
+     * Undoing and redoing actions gives the same worlds as copies taken along the way
+     */
+    private static void checkUndoRedo() {
+        Random rand = new Random(3);
+        int checks = 0;
+        for (int m = 0; m < MAPS; m++) {
+            World w = MapGenerator.getRandomMap(m).generateWorld();
+            w.setJournaling(true);
+            List<World> copies = new ArrayList<>();
+            copies.add(w.cloneWorld());
+            for (int i = 0; i < 40; i++) {
+                w.doAction(rand.nextInt(World.ACT_TURN_RIGHT + 1));
+                copies.add(w.cloneWorld());
+            }
+
+            int size = w.getJournalSize();
+            for (int k = size; k > 0; k--) {
+                check(w.undoAction(), "undo");
+                check(describe(w).equals(describe(copies.get(k - 1))), "undo of action " + k + " on map " + m);
+                checks++;
+            }
+            check(!w.undoAction(), "undo with an empty journal");
+            for (int k = 1; k <= size; k++) {
+                check(w.redoAction(), "redo");
+                check(describe(w).equals(describe(copies.get(k))), "redo of action " + k + " on map " + m);
+                checks++;
+            }
+            w.undoTo(5);
+            check(describe(w).equals(describe(copies.get(5))), "undoTo on map " + m);
+        }
+        System.out.println("undo/redo ok: " + checks + " states");
+    }
+
+    /**
+     * A snapshot file reads back into every kind of table with the same keys and values
+     */
+    private static void checkSnapshotRoundTrip() throws IOException {
+        QTable source = new QTable();
+        Random rand = new Random(7);
+        double[] values = new double[QState.Q_ARR_SIZE];
+        for (World w : randomWalk(2)) {
+            int slot = source.getSlotFromWorld(w);
+            for (int a = 0; a < QState.Q_ARR_SIZE; a++) {
+                if (source.getQValue(slot, a) != QState.ILLEGAL_VAL) {
+                    source.setQValue(slot, a, rand.nextGaussian());
+                }
+            }
+        }
+
+        File file = File.createTempFile("wumpus", ".qtb");
+        try {
+            QTableSnapshot.write(source, file.getPath());
+            QTable[] targets = {new QTable(QTable.STORAGE_HEAP), new QTable(QTable.STORAGE_OFF_HEAP), new ConcurrentQTable()};
+            for (QTable target : targets) {
+                check(QTableSnapshot.read(target, file.getPath()) == source.getQStateCount(), "states read");
+                checkSameTable(source, target, values);
+            }
+            QTable mapped = new QTable(file.getPath(), true);
+            try {
+                checkSameTable(source, mapped, values);
+            } finally {
+                mapped.close();
+            }
+        } finally {
+            file.delete();
+        }
+        System.out.println("snapshot round trip ok: " + source.getQStateCount() + " states");
+    }
+
+    /**
+     * Tables of 8x8 worlds, whose tile keys are fingerprints, keep their keys and values
+     * through copyTo(), ConcurrentQTable, saveToFile()/loadFromFile() and parallel training
+     */
+    private static void checkLargeWorldCopies() throws IOException {
+        List<WorldMap> maps = new ArrayList<>();
+        for (int m = 0; m < LARGE_MAPS; m++) {
+            maps.add(MapGenerator.getRandomMap(m, LARGE_SIZE));
+        }
+
+        QTable source = new QTable();
+        Random rand = new Random(17);
+        double[] values = new double[QState.Q_ARR_SIZE];
+        for (World w : randomWalk(5, maps)) {
+            int slot = source.getSlotFromWorld(w);
+            int action = source.argRandomAction(slot, rand);
+            if (action != -1) {
+                source.setQValue(slot, action, rand.nextGaussian());
+            }
+        }
+
+        QTable copy = new QTable();
+        source.copyTo(copy);
+        checkSameTable(source, copy, values);
+        ConcurrentQTable concurrent = new ConcurrentQTable();
+        source.copyTo(concurrent);
+        checkSameTable(source, concurrent, values);
+        QTable back = new QTable(QTable.STORAGE_OFF_HEAP);
+        concurrent.copyTo(back);
+        checkSameTable(source, back, values);
+
+        File file = File.createTempFile("wumpus", ".qtb");
+        try {
+            source.saveToFile(file.getPath());
+            QTable loaded = new QTable();
+            loaded.loadFromFile(file.getPath());
+            checkSameTable(source, loaded, values);
+            concurrent.saveToFile(file.getPath());
+            ConcurrentQTable loadedConcurrent = new ConcurrentQTable();
+            loadedConcurrent.loadFromFile(file.getPath());
+            checkSameTable(source, loadedConcurrent, values);
+            System.out.println();
+        } finally {
+            file.delete();
+        }
+
+        // Parallel training copies the table into a ConcurrentQTable and back
+        Trainer trainer = new Trainer(0.1, 0.9, 0.9, 0.1, 0.8);
+        trainer.setThreads(4);
+        QTable trained = new QTable();
+        trainer.train(trained, maps, 20);
+        for (WorldMap map : maps) {
+            check(trained.findSlotFromWorld(map.generateWorld()) != -1, "start state after parallel training");
+        }
+        System.out.println("large world copies ok: " + source.getQStateCount() + " states");
+    }
+
+    /**
+     * ConcurrentQTable ends up with the same keys, values and masks as QTable for the same inserts and updates
+     */
+    private static void checkConcurrentTable() {
+        QTable plain = new QTable();
+        ConcurrentQTable concurrent = new ConcurrentQTable();
+        Random rand = new Random(11);
+        double[] values = new double[QState.Q_ARR_SIZE];
+        for (World w : randomWalk(3)) {
+            int slot = plain.getSlotFromWorld(w);
+            int other = concurrent.getSlotFromWorld(w);
+            check(plain.getKeyHeader(slot) == concurrent.getKeyHeader(other)
+                    && plain.getKeyTiles(slot) == concurrent.getKeyTiles(other), "key of the inserted slot");
+            check(concurrent.getSlot(plain.getKeyHeader(slot), plain.getKeyTiles(slot)) == other, "slot lookup");
+
+            int action = plain.argRandomAction(slot, new Random(slot));
+            if (action != -1) {
+                double target = rand.nextGaussian();
+                check(plain.updateQValue(slot, action, 0.1, target) == concurrent.updateQValue(other, action, 0.1, target), "update");
+                check(plain.argmaxAction(slot) == concurrent.argmaxAction(other), "argmax action");
+            }
+        }
+
+        // Explicit inserts, as done by the snapshot reader and the solver
+        for (int i = 0; i < 5000; i++) {
+            long header = QState.KEY_USED | (1L << 40) | i;
+            long tiles = i * 31L;
+            values[0] = i;
+            int slot = concurrent.insertState(header, tiles, values);
+            plain.insertState(header, tiles, values);
+            check(concurrent.getSlot(header, tiles) == slot && concurrent.getQValue(slot, 0) == i, "insert with values");
+        }
+        check(plain.getQStateCount() == concurrent.getQStateCount(), "state count");
+        checkSameTable(plain, concurrent, values);
+        System.out.println("concurrent table ok: " + concurrent.getQStateCount() + " states");
+    }
+
+    /**
+     * The legal action masks agree with isQActionLegal() and with the stored Q-values
+     */
+    private static void checkLegalMasks() {
+        QTable qt = new QTable();
+        Random rand = new Random(13);
+        int checks = 0;
+        for (World w : randomWalk(4)) {
+            int legal = QState.getLegalActionMask(w);
+            for (int a = 0; a < QState.Q_ARR_SIZE; a++) {
+                check(QState.isQActionLegal(w, a) == ((legal & (1 << a)) != 0), "isQActionLegal");
+            }
+
+            boolean inserted = qt.findSlotFromWorld(w) == -1;
+            int slot = qt.getSlotFromWorld(w);
+            check(!inserted || qt.getLegalActionMask(slot) == legal, "mask of a new state");
+            int action = rand.nextInt(QState.Q_ARR_SIZE);
+            qt.setQValue(slot, action, rand.nextBoolean() ? QState.ILLEGAL_VAL : rand.nextGaussian());
+            check(qt.getLegalActionMask(slot) == QState.getLegalActionMask(qt.getQState(qt.getKeyHeader(slot),
+                    qt.getKeyTiles(slot)).getQValues()), "mask after setQValue");
+            checks++;
+        }
+        System.out.println("legal masks ok: " + checks + " states");
+    }
+
+    /**
+     * FastRandom repeats its sequence for a seed and stays within its bounds
+     */
+    private static void checkFastRandom() {
+        FastRandom a = new FastRandom(5);
+        FastRandom b = new FastRandom(5);
+        int[] counts = new int[QState.Q_ARR_SIZE];
+        for (int i = 0; i < 700000; i++) {
+            check(a.nextLong() == b.nextLong(), "same seed, same sequence");
+            double d = a.nextDouble();
+            check(d >= 0.0 && d < 1.0 && d == b.nextDouble(), "nextDouble");
+            int n = a.nextInt(QState.Q_ARR_SIZE);
+            check(n == b.nextInt(QState.Q_ARR_SIZE), "nextInt");
+            counts[n]++;
+        }
+        for (int count : counts) {
+            check(Math.abs(count - 100000) < 2000, "nextInt distribution");
+        }
+        System.out.println("fast random ok");
+    }
+
+    // Helpers
+    /**
+     * Copies of the worlds along random QState action sequences on the premade and random maps
+     */
+    private static List<World> randomWalk(long seed) {
+        List<WorldMap> maps = new ArrayList<>(new MapReader().readMaps());
+        for (int m = 0; m < MAPS; m++) {
+            maps.add(MapGenerator.getRandomMap(m));
+        }
+        return randomWalk(seed, maps);
+    }
+
+    /**
+     * Copies of the worlds along random QState action sequences on the given maps
+     */
+    private static List<World> randomWalk(long seed, List<WorldMap> maps) {
+        Random rand = new Random(seed);
+        List<World> worlds = new ArrayList<>();
+        for (WorldMap map : maps) {
+            World w = map.generateWorld();
+            for (int s = 0; s < STEPS && !w.gameOver(); s++) {
+                worlds.add(w.cloneWorld());
+                QState.doQStateAction(w, rand.nextInt(QState.Q_ARR_SIZE));
+            }
+        }
+        return worlds;
+    }
+
+    /**
+     * Everything a world shows through its public methods
+     */
+    private static String describe(World w) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(w.getPlayerX()).append(',').append(w.getPlayerY()).append(',').append(w.getDirection())
+                .append(',').append(w.getScore()).append(',').append(w.hasArrow()).append(w.wumpusAlive())
+                .append(w.isInPit()).append(w.hasGold()).append(w.gameOver());
+        for (int y = 0; y <= w.getSize() + 1; y++) {
+            for (int x = 0; x <= w.getSize() + 1; x++) {
+                sb.append(w.isUnknown(x, y) ? 1 : 0).append(w.isVisited(x, y) ? 1 : 0)
+                        .append(w.hasBreeze(x, y) ? 1 : 0).append(w.hasStench(x, y) ? 1 : 0)
+                        .append(w.hasWumpus(x, y) ? 1 : 0).append(w.hasGlitter(x, y) ? 1 : 0)
+                        .append(w.isMaybePitTile(x, y) ? 1 : 0).append(w.confirmedWumpusTile(x, y) ? 1 : 0)
+                        .append(w.isMaybeSafeTile(x, y, true) ? 1 : 0).append(w.isMaybeSafeTile(x, y, false) ? 1 : 0);
+            }
+        }
+        sb.append(w.isWumpusConfirmed()).append(w.isSafeExplored());
+        return sb.toString();
+    }
+
+    private static void checkSameTable(QTable expected, QTable actual, double[] values) {
+        check(expected.getQStateCount() == actual.getQStateCount(), "state count");
+        for (int slot = 0; slot < expected.getQStateCount(); slot++) {
+            int other = actual.getSlot(expected.getKeyHeader(slot), expected.getKeyTiles(slot));
+            check(other != -1, "missing key");
+            for (int a = 0; a < QState.Q_ARR_SIZE; a++) {
+                values[a] = expected.getQValue(slot, a);
+                check(Double.compare(values[a], actual.getQValue(other, a)) == 0, "Q-value");
+            }
+            check(actual.getLegalActionMask(other) == expected.getLegalActionMask(slot), "legal mask");
+        }
+    }
+
+    private static List<Long> key(long header, long tiles) {
+        List<Long> key = new ArrayList<>(2);
+        key.add(header);
+        key.add(tiles);
+        return key;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok) {
+            throw new AssertionError(what);
+        }
+    }
+}